@@ -124,7 +124,7 @@ public class PatientDetailActivity extends ActionBarActivity implements View.OnC
         // Set the activity title
         setTitle(mPatient.getName());
 
-        int urgency = mPatient.getUrgency();
+        int urgency = mPatient.getUrgencyValue();
         String urgencyFormat;
         if (urgency <= 1)
             urgencyFormat = "Non-urgent (%d)";
@@ -223,7 +223,7 @@ public class PatientDetailActivity extends ActionBarActivity implements View.OnC
                 finish();
                 return true;
             case R.id.delete:
-                ER.getInstance().removePatient(mPatient.getHealthCardNumber());
+                ER.getInstance().removePatient(ER.getInstance().getKey(mPatient));
                 finish();
                 break;
         }
@@ -241,46 +241,51 @@ public class PatientDetailActivity extends ActionBarActivity implements View.OnC
         switch (view.getId()) {
             case R.id.record_vital_signs:
                 intent = new Intent(this, PatientRecordVitalSignsActivity.class);
-                intent.putExtra(PatientRecordVitalSignsActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientRecordVitalSignsActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.patient_detail_vital_signs:
                 intent = new Intent(this, PatientVitalSignsActivity.class);
-                intent.putExtra(PatientVitalSignsActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientVitalSignsActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.record_symptoms:
                 intent = new Intent(this, PatientRecordSymptomsActivity.class);
-                intent.putExtra(PatientRecordSymptomsActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientRecordSymptomsActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.patient_detail_symptoms:
                 intent = new Intent(this, PatientSymptomsActivity.class);
-                intent.putExtra(PatientSymptomsActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientSymptomsActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.add_prescription:
                 intent = new Intent(this, PatientAddPrescriptionActivity.class);
-                intent.putExtra(PatientAddPrescriptionActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientAddPrescriptionActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.patient_detail_prescriptions:
                 intent = new Intent(this, PatientPrescriptionsActivity.class);
-                intent.putExtra(PatientPrescriptionsActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientPrescriptionsActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.edit_info:
             	intent = new Intent(this, PatientEditActivity.class);
-            	intent.putExtra(PatientEditActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+            	intent.putExtra(PatientEditActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
             	startActivity(intent);
                 break;
             case R.id.patient_detail_doctor:
                 intent = new Intent(this, PatientDoctorActivity.class);
-                intent.putExtra(PatientDoctorActivity.ARG_ITEM_ID, mPatient.getHealthCardNumber());
+                intent.putExtra(PatientDoctorActivity.ARG_ITEM_ID, ER.getInstance().getKey(mPatient));
                 startActivity(intent);
                 break;
             case R.id.add_seen_by_doctor:
-                mPatient.addSeenByDoctor();
+                try {
+                    ER.getInstance().addSeenByDoctor(ER.getInstance().getKey(mPatient));
+                } catch (PatientNotFoundException e) {
+                    String message = getString(R.string.patient_not_found);
+                    Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+                }
                 populatePatientData();
                 break;
         }
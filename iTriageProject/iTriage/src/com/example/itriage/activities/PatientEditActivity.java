@@ -158,6 +158,11 @@ public class PatientEditActivity extends ActionBarActivity implements View.OnCli
             mHealthCardNumberField.setError(error);
             focusView = mHealthCardNumberField;
             cancel = true;
+        } else if (isTaken(healthCardNumber)) {
+            String error = getString(R.string.error_duplicate_health_card_number);
+            mHealthCardNumberField.setError(error);
+            focusView = mHealthCardNumberField;
+            cancel = true;
         }
 
         if (cancel) {
@@ -178,9 +183,22 @@ public class PatientEditActivity extends ActionBarActivity implements View.OnCli
         } else {
             // Add the patient to the ER
             if (intent.hasExtra(ARG_ITEM_ID)) {
+                // Change the health card number first, through the ER, so
+                // that nothing is saved if another patient took it meanwhile
+                try {
+                    String oldNumber = ER.getInstance().getKey(mPatient);
+                    if (!oldNumber.equals(healthCardNumber))
+                        ER.getInstance().setHealthCardNumber(oldNumber, healthCardNumber);
+                } catch (PatientNotFoundException e) {
+                    e.printStackTrace();
+                } catch (IllegalArgumentException e) {
+                    String error = getString(R.string.error_duplicate_health_card_number);
+                    mHealthCardNumberField.setError(error);
+                    mHealthCardNumberField.requestFocus();
+                    return;
+                }
                 mPatient.setName(name);
                 mPatient.setBirthDate(mBirthDate);
-                mPatient.setHealthCardNumber(healthCardNumber);
                 mPatient.setArrivalTime(mArrivalTime);
             } else {
                 ER.getInstance().addPatient(name, mBirthDate, healthCardNumber, mArrivalTime);
@@ -192,6 +210,21 @@ public class PatientEditActivity extends ActionBarActivity implements View.OnCli
         }
     }
 
+    /**
+     * Returns true if a patient other than the one being edited already has
+     * the given health card number.
+     *
+     * @param healthCardNumber the health card number entered
+     * @return true if the health card number is taken
+     */
+    private boolean isTaken(String healthCardNumber) {
+        try {
+            return ER.getInstance().getPatient(healthCardNumber) != mPatient;
+        } catch (PatientNotFoundException e) {
+            return false;
+        }
+    }
+
     @Override
     public void onClick(View view) {
         switch (view.getId()) {
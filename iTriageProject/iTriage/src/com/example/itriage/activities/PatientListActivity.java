@@ -1,7 +1,9 @@
 package com.example.itriage.activities;
 
+import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.ActionBar;
@@ -14,8 +16,11 @@ import com.example.itriage.R;
 import com.example.itriage.models.ER;
 import com.example.itriage.models.Patient;
 import com.example.itriage.models.PatientNotFoundException;
+import com.example.itriage.models.PatientPage;
+import com.example.itriage.models.UrgencyPolicy;
 import com.example.itriage.models.UserManager;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,11 +32,23 @@ import java.util.List;
 import java.util.Map;
 
 public class PatientListActivity extends ActionBarActivity implements
-        ActionBar.OnNavigationListener, AdapterView.OnItemClickListener {
+        ActionBar.OnNavigationListener, AdapterView.OnItemClickListener,
+        AbsListView.OnScrollListener {
 
     // UI references
     private ListView mPatientList;
 
+    // The number of patients loaded into the list at a time
+    private static final int PAGE_SIZE = 50;
+
+    // The patients loaded into the list so far, and their rows
+    private List<Patient> mLoadedPatients;
+    private List<Map<String, String>> mListItems;
+    private SimpleAdapter mAdapter;
+
+    // The cursor of the next page to load, or null if every page is loaded
+    private PatientPage.Cursor mNextCursor;
+
     // The state of the patient filter spinner
     private enum FilterState {
         BY_URGENCY,
@@ -40,6 +57,12 @@ public class PatientListActivity extends ActionBarActivity implements
     }
     private FilterState filterState;
 
+    // The maximum number of patients listed by a search by name
+    private static final int MAX_SEARCH_RESULTS = 20;
+
+    // The modification time of the urgency rules last loaded, or 0
+    private static long sUrgencyPolicyModified;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -52,6 +75,7 @@ public class PatientListActivity extends ActionBarActivity implements
         mPatientList = (ListView) findViewById(android.R.id.list);
         mPatientList.setEmptyView(findViewById(android.R.id.empty));
         mPatientList.setOnItemClickListener(this);
+        mPatientList.setOnScrollListener(this);
 
         // Set up the action bar to show a dropdown list.
         final ActionBar actionBar = getSupportActionBar();
@@ -76,6 +100,9 @@ public class PatientListActivity extends ActionBarActivity implements
     protected void onResume() {
         super.onResume();
 
+        // Pick up any change to the urgency rules
+        loadUrgencyPolicyFromFile();
+
         // Populate the list of patients
         populatePatientList();
     }
@@ -143,25 +170,64 @@ public class PatientListActivity extends ActionBarActivity implements
                              long id) {
 
         // Using health card number as ID to pass to the activity.
-        Patient patient = patientListWithCurrentFilter().get(position);
-        System.out.println(position);
-        String healthCardNumber = patient.getHealthCardNumber();
+        Patient patient = mLoadedPatients.get(position);
+        String healthCardNumber = ER.getInstance().getKey(patient);
 
         Intent intent = new Intent(this, PatientDetailActivity.class);
         intent.putExtra(PatientDetailActivity.ARG_ITEM_ID, healthCardNumber);
         startActivity(intent);
     }
 
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem,
+                         int visibleItemCount, int totalItemCount) {
+        // Load the next page before the user reaches the end of the list
+        boolean nearEnd = firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2;
+        if (mNextCursor != null && nearEnd)
+            loadNextPage();
+    }
+
     /**
-     * Populates the ListView of patients using the current filter.
+     * Populates the ListView of patients using the current filter. Only the
+     * first page of patients is loaded; later pages are loaded on scroll.
      */
     private void populatePatientList() {
         // The items to be passed to a SimpleAdapter
-        List<Map<String, String>> listItems;
-        listItems = new ArrayList<Map<String, String>>();
+        mLoadedPatients = new ArrayList<Patient>();
+        mListItems = new ArrayList<Map<String, String>>();
+        mNextCursor = null;
+
+        // Initialize a new SimpleAdapter
+        String[] from = new String[] {"thumb", "row1", "row2", "urgency", "arrivalTime"};
+        int[] to = new int[] { android.R.id.icon,
+                               R.id.name,
+                               R.id.health_card_number,
+                               R.id.urgency,
+                               R.id.arrival_time };
+        mAdapter = new SimpleAdapter(this, mListItems, R.layout.patient_list_item,
+                                     from, to);
+
+        // Fill the list with the first page of patient data
+        loadNextPage();
+
+        // Set the ListView to use the new adapter
+        mPatientList.setAdapter(mAdapter);
+    }
+
+    /**
+     * Appends the next page of patients with the current filter to the
+     * ListView.
+     */
+    private void loadNextPage() {
+        PatientPage page = patientPageWithCurrentFilter(mNextCursor);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("h:mma, EEE, MMM d, yyyy");
 
         // Fill the list with patient data
-        for (Patient patient : patientListWithCurrentFilter()) {
+        for (Patient patient : page.getPatients()) {
             Map<String, String> row = new HashMap<String, String>();
             // Set the thumbnail depending on whether the patient is improving
             int thumbnailId;
@@ -174,49 +240,38 @@ public class PatientListActivity extends ActionBarActivity implements
                 thumbnailId = R.drawable.ic_neutral;
             row.put("thumb", String.valueOf(thumbnailId));
 
-            SimpleDateFormat dateFormat = new SimpleDateFormat("h:mma, EEE, MMM d, yyyy");
-
             // Add the name and health card number
             row.put("row1", patient.getName());
             row.put("row2", patient.getHealthCardNumber());
-            row.put("urgency", String.valueOf(patient.getUrgency()));
+            row.put("urgency", String.valueOf(patient.getUrgencyValue()));
             row.put("arrivalTime", dateFormat.format(patient.getArrivalTime().getTime()));
 
-            listItems.add(row);
+            mLoadedPatients.add(patient);
+            mListItems.add(row);
         }
 
-        // Initialize a new SimpleAdapter
-        String[] from = new String[] {"thumb", "row1", "row2", "urgency", "arrivalTime"};
-        int[] to = new int[] { android.R.id.icon,
-                               R.id.name,
-                               R.id.health_card_number,
-                               R.id.urgency,
-                               R.id.arrival_time };
-        SimpleAdapter simpleAdapter = new SimpleAdapter(this,
-                                                        listItems,
-                                                        R.layout.patient_list_item,
-                                                        from, to);
-
-        // Set the ListView to use the new adapter
-        mPatientList.setAdapter(simpleAdapter);
+        mNextCursor = page.getNextCursor();
+        mAdapter.notifyDataSetChanged();
     }
 
     /**
-     * Returns a list of patients with the current filter applied.
+     * Returns the page of patients with the current filter applied which
+     * follows the given cursor.
      *
-     * @return a list of patients with the current filter applied
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @return a page of patients with the current filter applied
      */
-    private List<Patient> patientListWithCurrentFilter() {
+    private PatientPage patientPageWithCurrentFilter(PatientPage.Cursor cursor) {
         ER er = ER.getInstance();
         switch (filterState) {
             case BY_URGENCY:
-                return er.getWaitingPatientsByUrgency();
+                return er.getWaitingPatientsByUrgency(cursor, PAGE_SIZE);
             case BY_ARRIVAL_TIME:
-                return er.getWaitingPatientsByArrivalTime();
+                return er.getWaitingPatientsByArrivalTime(cursor, PAGE_SIZE);
             case ALL:
-                return er.getAllPatientsByName();
+                return er.getAllPatientsByName(cursor, PAGE_SIZE);
             default:
-                return er.getAllPatientsByName();
+                return er.getAllPatientsByName(cursor, PAGE_SIZE);
         }
     }
 
@@ -251,6 +306,29 @@ public class PatientListActivity extends ActionBarActivity implements
         return success;
     }
 
+    /**
+     * Loads the urgency rules from file if the file has changed since they
+     * were last loaded. Without a file the built-in rules are used.
+     */
+    private void loadUrgencyPolicyFromFile() {
+        String policyFileName = getString(R.string.urgency_policy_filename);
+        File policyFile = getFileStreamPath(policyFileName);
+        if (!policyFile.exists() || policyFile.lastModified() == sUrgencyPolicyModified)
+            return;
+        try {
+            InputStream inputStream = openFileInput(policyFileName);
+            try {
+                ER.getInstance().setUrgencyPolicy(UrgencyPolicy.load(inputStream));
+                sUrgencyPolicyModified = policyFile.lastModified();
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            String message = "Unable to load urgency rules from file.";
+            showFileErrorToast(message);
+        }
+    }
+
     /**
      * Saves the ER database to file.
      * @return true if the database was saved successfully, otherwise false
@@ -286,6 +364,11 @@ public class PatientListActivity extends ActionBarActivity implements
         Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * Opens a dialog which searches for a patient by health card number,
+     * or by the start of their name, or failing those by an approximate
+     * match of either.
+     */
     public void openSearchDialog() {
         final EditText searchQuery;
         final Dialog dialog = new Dialog(this);
@@ -298,15 +381,33 @@ public class PatientListActivity extends ActionBarActivity implements
             @Override
             public void onClick(View view) {
                 String searchString = searchQuery.getText().toString();
+                ER er = ER.getInstance();
                 try {
-                    ER.getInstance().getPatient(searchString);
-                    Intent intent = new Intent(PatientListActivity.this, PatientDetailActivity.class);
-                    intent.putExtra(PatientDetailActivity.ARG_ITEM_ID, searchString);
-                    startActivity(intent);
+                    er.getPatient(searchString);
+                    openPatientDetail(searchString);
                     dialog.dismiss();
                 } catch (PatientNotFoundException e) {
-                    String message = "Patient not found";
-                    Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+                    // Fall back to patients whose names start with the query
+                    List<Patient> matches;
+                    matches = er.findPatientsByNamePrefix(searchString, MAX_SEARCH_RESULTS);
+                    if (matches.isEmpty()) {
+                        // Fall back to approximate matches, which are always
+                        // offered as a choice rather than opened
+                        matches = er.searchPatients(searchString, MAX_SEARCH_RESULTS);
+                        if (!matches.isEmpty()) {
+                            dialog.dismiss();
+                            openSearchResultsDialog(matches);
+                            return;
+                        }
+                        String message = "Patient not found";
+                        Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+                    } else if (matches.size() == 1) {
+                        openPatientDetail(ER.getInstance().getKey(matches.get(0)));
+                        dialog.dismiss();
+                    } else {
+                        dialog.dismiss();
+                        openSearchResultsDialog(matches);
+                    }
                 }
 
             }
@@ -314,4 +415,40 @@ public class PatientListActivity extends ActionBarActivity implements
         dialog.show();
     }
 
+    /**
+     * Opens a dialog which lets the user pick one of several patients found
+     * by a search.
+     *
+     * @param matches the patients found by the search
+     */
+    private void openSearchResultsDialog(final List<Patient> matches) {
+        String[] items = new String[matches.size()];
+        for (int i = 0; i < items.length; i++) {
+            Patient patient = matches.get(i);
+            items[i] = patient.getName() + " (" + patient.getHealthCardNumber() + ")";
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Search results");
+        builder.setItems(items, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                openPatientDetail(ER.getInstance().getKey(matches.get(which)));
+            }
+        });
+        builder.show();
+    }
+
+    /**
+     * Opens the detail activity of the patient with the given health card
+     * number.
+     *
+     * @param healthCardNumber the health card number of the patient
+     */
+    private void openPatientDetail(String healthCardNumber) {
+        Intent intent = new Intent(this, PatientDetailActivity.class);
+        intent.putExtra(PatientDetailActivity.ARG_ITEM_ID, healthCardNumber);
+        startActivity(intent);
+    }
+
 }
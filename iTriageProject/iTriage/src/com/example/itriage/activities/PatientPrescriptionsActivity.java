@@ -2,7 +2,7 @@ package com.example.itriage.activities;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +13,7 @@ import com.example.itriage.R.menu;
 import com.example.itriage.models.ER;
 import com.example.itriage.models.Patient;
 import com.example.itriage.models.PatientNotFoundException;
+import com.example.itriage.models.RecordTimestamp;
 import com.example.itriage.models.VitalSigns;
 
 import android.os.Bundle;
@@ -63,8 +64,8 @@ public class PatientPrescriptionsActivity extends Activity {
                                                getString(R.string.medication),
                                                getString(R.string.instructions)};
 
-            Map<Calendar, List<String>> prescriptionHistory = mPatient.getPrescriptions().getHistory();
-            for (Calendar timeRecorded : prescriptionHistory.keySet()) {
+            Map<Long, List<String>> prescriptionHistory = mPatient.getPrescriptions().getHistory();
+            for (Long timeRecorded : prescriptionHistory.keySet()) {
                 Map<String, String> row = new HashMap<String, String>(3);
 
                 List<String> prescription = prescriptionHistory.get(timeRecorded);
@@ -72,7 +73,7 @@ public class PatientPrescriptionsActivity extends Activity {
                 SimpleDateFormat dateFormat = new SimpleDateFormat("h:mma, EEE, MMM d, yyyy");
                 String fDate, fMedication, fInstructions;
 
-                fDate = dateFormat.format(timeRecorded.getTime());
+                fDate = dateFormat.format(new Date(RecordTimestamp.millisOf(timeRecorded)));
                 fMedication = prescription.get(0);
                 fInstructions = prescription.get(1);
                 
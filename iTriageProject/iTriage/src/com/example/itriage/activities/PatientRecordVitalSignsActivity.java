@@ -8,9 +8,9 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.Toast;
 import com.example.itriage.R;
 import com.example.itriage.models.ER;
-import com.example.itriage.models.Patient;
 import com.example.itriage.models.PatientNotFoundException;
 
 public class PatientRecordVitalSignsActivity extends Activity {
@@ -94,14 +94,17 @@ public class PatientRecordVitalSignsActivity extends Activity {
                     focusView.requestFocus();
                 } else {
                     try {
-                        Patient patient = ER.getInstance().getPatient
-                                (mPatientHealthCardNumber);
-                        patient.recordVitalSigns(Double.parseDouble(temperature),
-                                                 Integer.parseInt(bloodPressureSystolic),
-                                                 Integer.parseInt(bloodPressureDiastolic),
-                                                 Integer.parseInt(heartRate));
+                        ER.getInstance().recordVitalSigns(mPatientHealthCardNumber,
+                                                          Double.parseDouble(temperature),
+                                                          Integer.parseInt(bloodPressureSystolic),
+                                                          Integer.parseInt(bloodPressureDiastolic),
+                                                          Integer.parseInt(heartRate));
                     } catch (PatientNotFoundException e) {
                         e.printStackTrace();
+                    } catch (IllegalArgumentException e) {
+                        Toast.makeText(this, R.string.error_vital_signs_range,
+                                       Toast.LENGTH_SHORT).show();
+                        return true;
                     }
                     finish();
                 }
@@ -2,7 +2,7 @@ package com.example.itriage.activities;
  
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +10,7 @@ import java.util.Map;
 import com.example.itriage.models.ER;
 import com.example.itriage.models.Patient;
 import com.example.itriage.models.PatientNotFoundException;
+import com.example.itriage.models.RecordTimestamp;
 import com.example.itriage.R;
  
 import android.app.Activity;
@@ -59,8 +60,8 @@ public class PatientSymptomsActivity extends Activity{
             String[] colNames = new String[] { "title",
                                                getString(R.string.symptoms)};
            
-                Map<Calendar, String> symptomsHistory = mPatient.getSymptoms().getHistory();
-                for (Calendar timeRecorded : symptomsHistory.keySet()) {
+                Map<Long, String> symptomsHistory = mPatient.getSymptoms().getHistory();
+                for (Long timeRecorded : symptomsHistory.keySet()) {
                 Map<String, String> row = new HashMap<String, String>(1);
 
                 String currentSymptom = symptomsHistory.get(timeRecorded);
@@ -68,7 +69,7 @@ public class PatientSymptomsActivity extends Activity{
                 SimpleDateFormat dateFormat = new SimpleDateFormat("h:mma, EEE, MMM d, yyyy");
                 String fDate;
                
-                fDate = dateFormat.format(timeRecorded.getTime());
+                fDate = dateFormat.format(new Date(RecordTimestamp.millisOf(timeRecorded)));
                
                 row.put(colNames[0], fDate);
                 row.put(colNames[1], currentSymptom);
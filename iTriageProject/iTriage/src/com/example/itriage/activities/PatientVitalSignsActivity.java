@@ -11,7 +11,9 @@ import com.example.itriage.R;
 import com.example.itriage.models.ER;
 import com.example.itriage.models.Patient;
 import com.example.itriage.models.PatientNotFoundException;
+import com.example.itriage.models.RecordTimestamp;
 import com.example.itriage.models.VitalSigns;
+import com.example.itriage.models.VitalSignsRecord;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -24,6 +26,10 @@ public class PatientVitalSignsActivity extends Activity {
     // The argument representing the item ID that this activity represents.
     public static final String ARG_ITEM_ID = "health_card_number";
 
+    // The most rows to show; longer histories are shown as averages over
+    // this many spans of time
+    private static final int MAX_ROWS = 200;
+
     // The current patient we are looking at.
     private Patient mPatient;
 
@@ -60,26 +66,20 @@ public class PatientVitalSignsActivity extends Activity {
                                                getString(R.string.blood_pressure),
                                                getString(R.string.heart_rate) };
 
-            Map<Calendar, VitalSigns> vitalSignsHistory = mPatient.getVitalSigns().getHistory();
-            for (Calendar timeRecorded : vitalSignsHistory.keySet()) {
-                Map<String, String> row = new HashMap<String, String>(3);
-
-                VitalSigns vs = vitalSignsHistory.get(timeRecorded);
-
-                SimpleDateFormat dateFormat = new SimpleDateFormat("h:mma, EEE, MMM d, yyyy");
-                String fDate, fTemperature, fBloodPressure, fHeartRate;
-
-                fDate = dateFormat.format(timeRecorded.getTime());
-                fTemperature = String.format("%.1f", vs.getTemperature());
-                fBloodPressure = String.format("%.0f / %.0f", vs.getSystolicBloodPressure(), vs.getDiastolicBloodPressure());
-                fHeartRate = String.format("%.0f", vs.getHeartRate());
-
-                row.put(colNames[0], fDate);
-                row.put(colNames[1], fTemperature);
-                row.put(colNames[2], fBloodPressure);
-                row.put(colNames[3], fHeartRate);
-
-                adapterData.add(row);
+            VitalSignsRecord record = mPatient.getVitalSigns();
+            List<VitalSignsRecord.Bucket> rollups = record.getRollups();
+            if (rollups.size() + record.size() <= MAX_ROWS) {
+                // Compacted readings are older than the raw ones, and each
+                // rollup is shown as one row of its averages
+                for (VitalSignsRecord.Bucket rollup : rollups)
+                    adapterData.add(createRow(colNames, rollup.getStartTime(), rollup.getAverage()));
+                Map<Long, VitalSigns> vitalSignsHistory = record.getHistory();
+                for (Map.Entry<Long, VitalSigns> entry : vitalSignsHistory.entrySet())
+                    adapterData.add(createRow(colNames, RecordTimestamp.millisOf(entry.getKey()),
+                                              entry.getValue()));
+            } else {
+                for (VitalSignsRecord.Bucket bucket : record.downsample(MAX_ROWS))
+                    adapterData.add(createRow(colNames, bucket.getStartTime(), bucket.getAverage()));
             }
 
             SimpleAdapter adapter = new SimpleAdapter(this,
@@ -94,6 +94,32 @@ public class PatientVitalSignsActivity extends Activity {
         }
     }
 
+    /**
+     * Returns a row of the list for the given vital signs.
+     *
+     * @param colNames the keys of the columns of the row
+     * @param timeRecorded the time the vital signs were recorded
+     * @param vs the vital signs
+     * @return the row for the vital signs
+     */
+    private Map<String, String> createRow(String[] colNames, long timeRecorded, VitalSigns vs) {
+        Map<String, String> row = new HashMap<String, String>(4);
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("h:mma, EEE, MMM d, yyyy");
+        String fDate, fTemperature, fBloodPressure, fHeartRate;
+
+        fDate = dateFormat.format(new Date(timeRecorded));
+        fTemperature = String.format("%.1f", vs.getTemperature());
+        fBloodPressure = String.format("%.0f / %.0f", vs.getSystolicBloodPressure(), vs.getDiastolicBloodPressure());
+        fHeartRate = String.format("%.0f", vs.getHeartRate());
+
+        row.put(colNames[0], fDate);
+        row.put(colNames[1], fTemperature);
+        row.put(colNames[2], fBloodPressure);
+        row.put(colNames[3], fHeartRate);
+        return row;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -0,0 +1,61 @@
+package com.example.itriage.models;
+
+/**
+ * An index of waiting patients in ascending order by arrival time. Patients
+ * who arrived at the same time are ordered by id.
+ */
+class ArrivalTimeIndex extends PatientIndex<ArrivalTimeIndex.Key> {
+
+    /**
+     * The position of a patient in this index.
+     */
+    static class Key implements Comparable<Key> {
+        private final long arrivalTime;
+        private final long id;
+
+        Key(long arrivalTime, long id) {
+            this.arrivalTime = arrivalTime;
+            this.id = id;
+        }
+
+        /**
+         * Returns a key which sorts before every patient who arrived at or
+         * after the given time.
+         *
+         * @param arrivalTime an arrival time in milliseconds since the epoch
+         * @return a key which sorts before every patient arriving at that time
+         */
+        static Key lowest(long arrivalTime) {
+            return new Key(arrivalTime, Long.MIN_VALUE);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (arrivalTime != other.arrivalTime)
+                return arrivalTime < other.arrivalTime ? -1 : 1;
+            return id < other.id ? -1 : id > other.id ? 1 : 0;
+        }
+    }
+
+    @Override
+    Key keyOf(Patient patient) {
+        return new Key(patient.getArrivalTimeMillis(), patient.getId());
+    }
+
+    @Override
+    boolean dependsOn(PatientChangeEvent.Field field) {
+        switch (field) {
+            case ARRIVAL_TIME:
+            case SEEN_BY_DOCTOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    boolean accepts(Patient patient) {
+        return !patient.hasBeenSeenByDoctor();
+    }
+
+}
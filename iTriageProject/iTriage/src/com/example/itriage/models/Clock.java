@@ -0,0 +1,91 @@
+package com.example.itriage.models;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The source of the current time for the models. Every model reads the time
+ * from Clock.getCurrent(), so a simulation or test can run on its own time
+ * by replacing the clock with setCurrent().
+ */
+public abstract class Clock {
+
+    /**
+     * The clock of the system, which reads System.currentTimeMillis().
+     */
+    public static final Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    // The clock used by the models
+    private static volatile Clock current = SYSTEM;
+
+    // The time zone dates are counted in; kept since getDefault() copies it
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    /**
+     * Returns the clock used by the models.
+     *
+     * @return the clock in use
+     */
+    public static Clock getCurrent() {
+        return current;
+    }
+
+    /**
+     * Replaces the clock used by the models.
+     *
+     * @param clock the new clock
+     */
+    public static void setCurrent(Clock clock) {
+        if (clock == null)
+            throw new NullPointerException("clock");
+        current = clock;
+    }
+
+    /**
+     * Returns a clock which always reads the given time.
+     *
+     * @param millis the time in milliseconds
+     * @return a clock stopped at the time
+     */
+    public static Clock fixed(final long millis) {
+        return new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * Returns the current time in milliseconds since 1970-01-01T00:00Z.
+     *
+     * @return the current time in milliseconds
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Returns the current date as the number of days since 1970-01-01.
+     *
+     * @return the current epoch day
+     */
+    public int today() {
+        return EpochDays.fromMillis(currentTimeMillis(), timeZone);
+    }
+
+    /**
+     * Returns a new calendar set to the current time.
+     *
+     * @return a calendar set to the current time
+     */
+    public Calendar now() {
+        Calendar now = Calendar.getInstance(timeZone);
+        now.setTimeInMillis(currentTimeMillis());
+        return now;
+    }
+
+}
@@ -2,23 +2,102 @@ package com.example.itriage.models;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.lang.reflect.Type;
+import java.io.OutputStreamWriter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An emergency room which holds and organizes patients.
  * This is a singleton class.
+ *
+ * An ER is safe to use from several threads. Patients are published through
+ * a concurrent map, so a patient returned by getPatient is fully visible to
+ * the caller. Updates which change a patient and then its position in the
+ * orderings hold a lock stripe chosen by health card number, so two writers
+ * of the same patient cannot interleave while writers of different patients
+ * run in parallel.
+ *
+ * Readers which need a consistent view of every patient and ordering at once
+ * can take an immutable ERSnapshot with getSnapshot().
+ *
+ * Patients may be partitioned into several shards by health card number
+ * with setShardCount(). Lookups go to a single shard, and ordered queries
+ * merge the ordered results of every shard.
  */
 public class ER {
 
-    // Map of all Patients, with health card numbers as keys.
-    private Map<String, Patient> allPatients;
+    // The number of lock stripes; a power of two
+    private static final int LOCK_STRIPES = 16;
+
+    // The fewest patients worth re-scoring on a thread of their own
+    private static final int MIN_RESCORE_CHUNK = 1000;
+
+    /**
+     * The partitions of the patients in this ER. A patient is in the shard
+     * chosen by the hash of their health card number. This is replaced as a
+     * whole when the number of shards changes.
+     */
+    private volatile ERShard[] shards;
+
+    /**
+     * The health card number each patient in this ER is kept under, by
+     * patient id. This is the number of the patient except while a change of
+     * number is being applied, or while the new number belongs to another
+     * patient. The shards keep each patient under this number.
+     * A key only changes while the lock stripe of that number is held.
+     */
+    private final ConcurrentHashMap<Long, String> keys;
+
+    // Locks for updates to patients, chosen by health card number
+    private final ReentrantLock[] locks;
+
+    // Incremented whenever a patient is added, removed or moved
+    private final AtomicLong version;
+
+    // The clock and the epoch day the urgency ordering was last brought up
+    // to date for, by refreshUrgencies()
+    private volatile Clock urgencyClock;
+    private volatile int urgencyDay;
+
+    // The latest snapshot taken, which may be older than version
+    private volatile ERSnapshot snapshot;
+
+    // Held while taking a new snapshot, so only one is taken at a time
+    private final Object snapshotLock = new Object();
+
+    // How long raw readings of vital signs are kept
+    private volatile RetentionPolicy retentionPolicy = RetentionPolicy.KEEP_ALL;
+
+    // Compacts the histories of patients in the background; created when
+    // first needed
+    private ExecutorService compactor;
+
+    // Added to every patient in this ER, to keep the orderings up to date
+    private final PatientChangeListener changeListener = new PatientChangeListener() {
+        @Override
+        public void onPatientChanged(PatientChangeEvent event) {
+            patientChanged(event);
+        }
+    };
 
     /**
      * Since this is a singleton, a new instance is created and a reference
@@ -36,10 +115,86 @@ public class ER {
     }
 
     /**
-     * Constructs this ER.
+     * Constructs this ER with a single shard.
      */
     private ER() {
-        this.allPatients = new HashMap<String, Patient>();
+        this.shards = new ERShard[] { new ERShard() };
+        this.locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            this.locks[i] = new ReentrantLock();
+        this.keys = new ConcurrentHashMap<Long, String>();
+        this.version = new AtomicLong();
+        this.urgencyClock = Clock.getCurrent();
+        this.urgencyDay = urgencyClock.today();
+        this.snapshot = new ERSnapshot(0, new HashMap<String, Patient>(),
+                                       new ArrayList<Patient>(),
+                                       new ArrayList<Patient>(),
+                                       new ArrayList<Patient>());
+    }
+
+    /**
+     * Returns the number of shards the patients in this ER are partitioned
+     * into.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Partitions the patients in this ER into the given number of shards.
+     * Each shard has its own indexes, so updates to patients in different
+     * shards do not contend, at the cost of merging the shards for ordered
+     * queries. Every update is stopped while patients are moved.
+     *
+     * @param shardCount the number of shards, at least 1
+     */
+    public void setShardCount(int shardCount) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("There must be at least one shard.");
+        lockAll();
+        try {
+            ERShard[] oldShards = shards;
+            ERShard[] newShards = new ERShard[shardCount];
+            for (int i = 0; i < shardCount; i++)
+                newShards[i] = new ERShard();
+            for (ERShard shard : oldShards)
+                for (Map.Entry<String, Patient> entry : shard.entries())
+                    newShards[shardIndex(entry.getKey(), shardCount)]
+                            .put(entry.getKey(), entry.getValue());
+            shards = newShards;
+            version.incrementAndGet();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Returns the shard which holds the patient with the given health card
+     * number.
+     *
+     * @param healthCardNumber a health card number
+     * @return the shard for the health card number
+     */
+    private ERShard shardFor(String healthCardNumber) {
+        ERShard[] shards = this.shards;
+        return shards[shardIndex(healthCardNumber, shards.length)];
+    }
+
+    /**
+     * Returns the index of the shard for the given health card number.
+     *
+     * @param healthCardNumber a health card number
+     * @param shardCount the number of shards
+     * @return the index of the shard for the health card number
+     */
+    private static int shardIndex(String healthCardNumber, int shardCount) {
+        // Mix the hash so that the shard is independent of the lock stripe,
+        // which is chosen by the low bits
+        int hash = healthCardNumber.hashCode();
+        hash = (hash ^ (hash >>> 16)) * 0x9e3779b9;
+        return (hash >>> 1) % shardCount;
     }
 
     /**
@@ -62,7 +217,513 @@ public class ER {
      */
     public void addPatient(Patient patient) {
         String healthCardNumber = patient.getHealthCardNumber();
-        allPatients.put(healthCardNumber, patient);
+        ReentrantLock lock = lockFor(healthCardNumber);
+        lock.lock();
+        try {
+            Patient previous = shardFor(healthCardNumber).put(healthCardNumber, patient);
+            if (previous != null && previous != patient) {
+                previous.removeChangeListener(changeListener);
+                keys.remove(previous.getId(), healthCardNumber);
+            }
+            keys.put(patient.getId(), healthCardNumber);
+            patient.addChangeListener(changeListener);
+            version.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the position of the given patient in this ER's orderings.
+     * Patients report changes to their own fields to this ER, and patients
+     * who grow older than an urgency threshold are re-scored before the
+     * urgency ordering is next read, so this is rarely needed.
+     *
+     * @param patient the patient which has changed
+     */
+    public void updatePatient(Patient patient) {
+        String key = lockKeyOf(patient);
+        if (key == null)
+            return;
+        try {
+            ERShard shard = shardFor(key);
+            if (shard.get(key) == patient) {
+                shard.index(patient);
+                version.incrementAndGet();
+            }
+        } finally {
+            lockFor(key).unlock();
+        }
+    }
+
+    /**
+     * Records new vital signs for the patient with the given health card
+     * number and updates their position in this ER's orderings, as one
+     * atomic update with respect to other updates through this ER.
+     *
+     * @param healthCardNumber the health card number of the patient
+     * @param temperature the new temperature of the patient
+     * @param systolic the new systolic blood pressure of the patient
+     * @param diastolic the new diastolic blood pressure of the patient
+     * @param heartRate the new heart rate of the patient
+     * @throws PatientNotFoundException if there is no such patient
+     * @throws IllegalArgumentException if the vital signs are out of range
+     */
+    public void recordVitalSigns(String healthCardNumber, double temperature,
+                                 int systolic, int diastolic, int heartRate)
+            throws PatientNotFoundException {
+        ReentrantLock lock = lockFor(healthCardNumber);
+        lock.lock();
+        try {
+            Patient patient = getPatient(healthCardNumber);
+            patient.recordVitalSigns(temperature, systolic, diastolic, heartRate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that the patient with the given health card number has been
+     * seen by a doctor now and updates their position in this ER's
+     * orderings, as one atomic update with respect to other updates through
+     * this ER.
+     *
+     * @param healthCardNumber the health card number of the patient
+     * @throws PatientNotFoundException if there is no such patient
+     */
+    public void addSeenByDoctor(String healthCardNumber)
+            throws PatientNotFoundException {
+        ReentrantLock lock = lockFor(healthCardNumber);
+        lock.lock();
+        try {
+            Patient patient = getPatient(healthCardNumber);
+            patient.addSeenByDoctor();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a patient in the orderings that depend on a field which has
+     * changed. A change of health card number also moves the patient to its
+     * new key in the map of all patients.
+     *
+     * The patient is found by its id, under the key it is kept at, rather
+     * than by its current health card number. Events may arrive in any
+     * order, since each is delivered on the thread which made the change;
+     * an event which arrives before the patient has moved to a new number
+     * still finds it. The shard reads the current fields of the patient, so
+     * an event which arrives late does no harm.
+     *
+     * @param event the change to a patient in this ER
+     */
+    private void patientChanged(PatientChangeEvent event) {
+        Patient patient = event.getPatient();
+        if (event.getField() == PatientChangeEvent.Field.HEALTH_CARD_NUMBER) {
+            healthCardNumberChanged(patient);
+            return;
+        }
+        if (event.getField() == PatientChangeEvent.Field.VITAL_SIGNS)
+            scheduleCompaction(patient.getVitalSigns());
+
+        String key = lockKeyOf(patient);
+        if (key == null)
+            return;
+        try {
+            ERShard shard = shardFor(key);
+            if (shard.get(key) == patient && shard.update(key, patient, event.getField()))
+                version.incrementAndGet();
+        } finally {
+            lockFor(key).unlock();
+        }
+    }
+
+    /**
+     * Replaces the rules used to compute the urgency of every patient. The
+     * waiting patients are then re-scored in parallel and moved to their new
+     * positions in the urgency ordering. Other updates can continue while
+     * this runs.
+     *
+     * @param policy the new rules for urgency
+     */
+    public void setUrgencyPolicy(UrgencyPolicy policy) {
+        UrgencyPolicy.setCurrent(policy);
+        rescoreWaiting();
+    }
+
+    /**
+     * Brings the urgency ordering up to date with the clock of the models.
+     * A patient's urgency lasts until the patient reaches an age the
+     * urgency policy cares about, and each shard keeps its waiting patients
+     * in order of that day, so only the patients whose day has come are
+     * re-scored. If the clock has been replaced or has gone back, every
+     * waiting patient is re-scored. This runs before each read of the
+     * urgency ordering rather than on a timer, so that it follows the clock
+     * of the models whether or not that is the clock of the system.
+     */
+    private void refreshUrgencies() {
+        Clock clock = Clock.getCurrent();
+        int today = clock.today();
+        // Keys computed since the last refresh were computed for today
+        if (clock == urgencyClock && today == urgencyDay)
+            return;
+
+        // Re-scoring takes lock stripes, maybe on other threads, so a thread
+        // which already holds one leaves it to the next read
+        for (ReentrantLock lock : locks)
+            if (lock.isHeldByCurrentThread())
+                return;
+
+        if (clock != urgencyClock || today < urgencyDay) {
+            urgencyClock = clock;
+            urgencyDay = today;
+            rescoreWaiting();
+            return;
+        }
+        urgencyDay = today;
+
+        boolean moved = false;
+        for (ERShard shard : shards) {
+            for (Patient patient : shard.expiredUrgencies(today)) {
+                rescore(patient);
+                moved = true;
+            }
+        }
+        if (moved)
+            version.incrementAndGet();
+    }
+
+    /**
+     * Re-scores every waiting patient in parallel and moves them to their
+     * new positions in the urgency ordering. Other updates can continue
+     * while this runs.
+     */
+    private void rescoreWaiting() {
+        final List<Patient> waiting = new ArrayList<Patient>();
+        for (ERShard shard : shards)
+            waiting.addAll(shard.waiting());
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                               waiting.size() / MIN_RESCORE_CHUNK);
+        if (threads <= 1) {
+            for (Patient patient : waiting)
+                rescore(patient);
+        } else {
+            int chunk = (waiting.size() + threads - 1) / threads;
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int start = 0; start < waiting.size(); start += chunk) {
+                final List<Patient> part;
+                part = waiting.subList(start, Math.min(start + chunk, waiting.size()));
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (Patient patient : part)
+                            rescore(patient);
+                        return null;
+                    }
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (Future<Void> result : executor.invokeAll(tasks))
+                    result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the policy for how long raw readings of vital signs are kept.
+     *
+     * @return the retention policy of this ER
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Replaces the policy for how long raw readings of vital signs are kept.
+     * Histories are then compacted in the background, and again whenever
+     * new vital signs push older readings out of the raw window.
+     *
+     * @param policy the new retention policy
+     */
+    public void setRetentionPolicy(RetentionPolicy policy) {
+        retentionPolicy = policy;
+        for (ERShard shard : shards)
+            for (Patient patient : shard.patients())
+                scheduleCompaction(patient.getVitalSigns());
+    }
+
+    /**
+     * Compacts the history of every patient under the retention policy now,
+     * on the calling thread, for example just before saving.
+     */
+    public void compactHistories() {
+        RetentionPolicy policy = retentionPolicy;
+        long now = Clock.getCurrent().currentTimeMillis();
+        for (ERShard shard : shards)
+            for (Patient patient : shard.patients())
+                patient.getVitalSigns().compact(policy, now);
+    }
+
+    /**
+     * Compacts the given record in the background if the retention policy
+     * no longer keeps some of its readings raw.
+     *
+     * @param record the vital signs of a patient in this ER
+     */
+    private void scheduleCompaction(final VitalSignsRecord record) {
+        final RetentionPolicy policy = retentionPolicy;
+        if (!record.scheduleCompaction(policy, Clock.getCurrent().currentTimeMillis()))
+            return;
+        compactor().execute(new Runnable() {
+            @Override
+            public void run() {
+                record.compact(policy, Clock.getCurrent().currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Returns the executor which compacts histories, creating it if needed.
+     * Its thread is a daemon, so it never keeps the process alive.
+     *
+     * @return the executor which compacts histories
+     */
+    private synchronized ExecutorService compactor() {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ER compactor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return compactor;
+    }
+
+    /**
+     * Moves the given patient to its position in the urgency ordering under
+     * the current urgency policy.
+     *
+     * @param patient the patient to re-score
+     */
+    private void rescore(Patient patient) {
+        String key = lockKeyOf(patient);
+        if (key == null)
+            return;
+        try {
+            ERShard shard = shardFor(key);
+            if (shard.get(key) == patient)
+                shard.rescore(patient);
+        } finally {
+            lockFor(key).unlock();
+        }
+    }
+
+    /**
+     * Changes the health card number of the patient with the given number
+     * and moves the patient to its new key, as one atomic update with
+     * respect to other updates through this ER.
+     *
+     * @param oldNumber the current health card number of the patient
+     * @param newNumber the new health card number of the patient
+     * @throws PatientNotFoundException if there is no such patient
+     * @throws IllegalArgumentException if another patient already has the
+     *         new health card number
+     */
+    public void setHealthCardNumber(String oldNumber, String newNumber)
+            throws PatientNotFoundException {
+        ReentrantLock[] stripes = lockBoth(oldNumber, newNumber);
+        try {
+            Patient patient = getPatient(oldNumber);
+            Patient other = shardFor(newNumber).get(newNumber);
+            if (other != null && other != patient) {
+                String format = "Health card number %s belongs to another patient.";
+                throw new IllegalArgumentException(String.format(format, newNumber));
+            }
+            // The change is reported back to this ER while both stripes are
+            // held, so no other patient can take the number first
+            patient.setHealthCardNumber(newNumber);
+        } finally {
+            unlockBoth(stripes);
+        }
+    }
+
+    /**
+     * Moves a patient whose health card number has changed from the key it
+     * is kept at to its current number, and to the shard of that number.
+     * If another patient already has the new number, neither patient is
+     * moved, so that no patient is lost; setHealthCardNumber rejects such a
+     * change before it is made.
+     *
+     * @param patient the patient which changed
+     */
+    private void healthCardNumberChanged(Patient patient) {
+        while (true) {
+            String oldNumber = keys.get(patient.getId());
+            if (oldNumber == null)
+                return;
+            String newNumber = patient.getHealthCardNumber();
+            ReentrantLock[] stripes = lockBoth(oldNumber, newNumber);
+            try {
+                // Try again if another change moved the patient first
+                if (!oldNumber.equals(keys.get(patient.getId())))
+                    continue;
+                ERShard oldShard = shardFor(oldNumber);
+                ERShard newShard = shardFor(newNumber);
+                if (oldNumber.equals(newNumber) || oldShard.get(oldNumber) != patient ||
+                    newShard.get(newNumber) != null)
+                    return;
+                oldShard.remove(oldNumber);
+                newShard.put(newNumber, patient);
+                keys.put(patient.getId(), newNumber);
+                version.incrementAndGet();
+                return;
+            } finally {
+                unlockBoth(stripes);
+            }
+        }
+    }
+
+    /**
+     * Acquires the lock stripe of the key the given patient is kept at in
+     * this ER, and returns that key. The caller must release the stripe of
+     * the key. Returns null without locking if the patient is not in this
+     * ER.
+     *
+     * @param patient a patient
+     * @return the key of the patient, whose stripe is now held, or null
+     */
+    private String lockKeyOf(Patient patient) {
+        while (true) {
+            String key = keys.get(patient.getId());
+            if (key == null)
+                return null;
+            ReentrantLock lock = lockFor(key);
+            lock.lock();
+            // The key only changes under its stripe, so it is now fixed
+            if (key.equals(keys.get(patient.getId())))
+                return key;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acquires the lock stripes of two health card numbers, in a fixed order
+     * so that two threads taking the same pair cannot deadlock.
+     *
+     * @param healthCardNumber1 a health card number
+     * @param healthCardNumber2 another health card number
+     * @return the stripes acquired, for unlockBoth
+     */
+    private ReentrantLock[] lockBoth(String healthCardNumber1, String healthCardNumber2) {
+        int stripe1 = stripeFor(healthCardNumber1);
+        int stripe2 = stripeFor(healthCardNumber2);
+        ReentrantLock[] stripes = new ReentrantLock[] {
+                locks[Math.min(stripe1, stripe2)], locks[Math.max(stripe1, stripe2)] };
+        stripes[0].lock();
+        stripes[1].lock();
+        return stripes;
+    }
+
+    /**
+     * Releases the lock stripes acquired by lockBoth.
+     *
+     * @param stripes the stripes returned by lockBoth
+     */
+    private static void unlockBoth(ReentrantLock[] stripes) {
+        stripes[1].unlock();
+        stripes[0].unlock();
+    }
+
+    /**
+     * Returns the lock stripe which guards updates to the patient with the
+     * given health card number.
+     *
+     * @param healthCardNumber a health card number
+     * @return the lock stripe for the health card number
+     */
+    private ReentrantLock lockFor(String healthCardNumber) {
+        return locks[stripeFor(healthCardNumber)];
+    }
+
+    /**
+     * Returns the index of the lock stripe for the given health card number.
+     *
+     * @param healthCardNumber a health card number
+     * @return the index of the lock stripe for the health card number
+     */
+    private int stripeFor(String healthCardNumber) {
+        return healthCardNumber.hashCode() & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Acquires every lock stripe, which stops all updates to patients.
+     */
+    private void lockAll() {
+        for (ReentrantLock lock : locks)
+            lock.lock();
+    }
+
+    /**
+     * Releases every lock stripe acquired by lockAll().
+     */
+    private void unlockAll() {
+        for (ReentrantLock lock : locks)
+            lock.unlock();
+    }
+
+    /**
+     * Returns an immutable snapshot of the patients in this ER and their
+     * orderings.
+     *
+     * If nothing has changed since the last snapshot was taken, that
+     * snapshot is returned without locking or copying. Otherwise the first
+     * caller after a batch of changes briefly stops updates and takes a new
+     * snapshot, which later callers share.
+     *
+     * @return an immutable snapshot of this ER
+     */
+    public ERSnapshot getSnapshot() {
+        // Patients whose urgency has changed with the date change version
+        refreshUrgencies();
+        ERSnapshot current = snapshot;
+        if (current.getVersion() == version.get())
+            return current;
+
+        synchronized (snapshotLock) {
+            // Another caller may have taken a new snapshot while we waited
+            current = snapshot;
+            if (current.getVersion() == version.get())
+                return current;
+
+            // Every change happens under a lock stripe, so holding them all
+            // makes the copies below agree with each other and with version
+            lockAll();
+            try {
+                Map<String, Patient> allPatients = new HashMap<String, Patient>();
+                for (ERShard shard : shards)
+                    for (Map.Entry<String, Patient> entry : shard.entries())
+                        allPatients.put(entry.getKey(), entry.getValue());
+                current = new ERSnapshot(version.get(), allPatients,
+                                         getAllPatientsByName(),
+                                         getWaitingPatientsByUrgency(),
+                                         getWaitingPatientsByArrivalTime());
+            } finally {
+                unlockAll();
+            }
+            snapshot = current;
+            return current;
+        }
     }
 
     /**
@@ -73,8 +734,10 @@ public class ER {
      */
     public Patient getPatient(String healthCardNumber)
             throws PatientNotFoundException {
-        if (allPatients.containsKey(healthCardNumber))
-            return allPatients.get(healthCardNumber);
+        // A single lookup, since the patient may be removed between two
+        Patient patient = shardFor(healthCardNumber).get(healthCardNumber);
+        if (patient != null)
+            return patient;
         else {
             String format = "Patient with health card number %s was not found.";
             String message = String.format(format, healthCardNumber);
@@ -82,13 +745,38 @@ public class ER {
         }
     }
 
+    /**
+     * Returns the health card number the given patient is kept under in this
+     * ER, which is the number to look the patient up by. This is the
+     * patient's own number, except while that number belongs to another
+     * patient. A patient not in this ER has its own number returned.
+     *
+     * @param patient a patient
+     * @return the health card number the patient is kept under
+     */
+    public String getKey(Patient patient) {
+        String key = keys.get(patient.getId());
+        return key != null ? key : patient.getHealthCardNumber();
+    }
+
     /**
      * Removes the patient with the given health card number.
      *
      * @param healthCardNumber the health card number of the patient to remove
      */
     public void removePatient(String healthCardNumber) {
-        allPatients.remove(healthCardNumber);
+        ReentrantLock lock = lockFor(healthCardNumber);
+        lock.lock();
+        try {
+            Patient removed = shardFor(healthCardNumber).remove(healthCardNumber);
+            if (removed != null) {
+                removed.removeChangeListener(changeListener);
+                keys.remove(removed.getId(), healthCardNumber);
+                version.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -97,23 +785,78 @@ public class ER {
      * @return a list of all patients, sorted in alphabetical order by name
      */
     public List<Patient> getAllPatientsByName() {
+        return patients(ordered(ERShard.BY_NAME, null, false, Integer.MAX_VALUE, false));
+    }
 
-        // Create a List of all patients
-        List<Patient> sortedList;
-        sortedList= new ArrayList<Patient>(allPatients.values());
+    /**
+     * Returns at most limit patients starting at the given offset into the
+     * list of all patients sorted in alphabetical order by name.
+     *
+     * @param offset the number of patients to skip
+     * @param limit the maximum number of patients to return
+     * @return a slice of all patients, sorted in alphabetical order by name
+     */
+    public List<Patient> getAllPatientsByName(int offset, int limit) {
+        return slice(ERShard.BY_NAME, offset, limit, false);
+    }
 
-        // Create a comparator to be used to sort the list by patient urgency
-        Comparator<Patient> nameComparator = new Comparator<Patient>() {
-            @Override
-            public int compare(Patient patient1, Patient patient2) {
-                return patient1.getName().compareTo(patient2.getName());
-            }
-        };
+    /**
+     * Returns the page of at most limit patients which follow the given
+     * cursor in the list of all patients sorted in alphabetical order by name.
+     *
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @param limit the maximum number of patients to return
+     * @return a page of all patients, sorted in alphabetical order by name
+     */
+    public PatientPage getAllPatientsByName(PatientPage.Cursor cursor, int limit) {
+        return page(ERShard.BY_NAME, cursor, limit, false);
+    }
 
-        // Sort the list using the comparator with O(n log n) performance
-        Collections.sort(sortedList, nameComparator);
+    /**
+     * Returns at most limit patients whose names start with the given
+     * prefix, in alphabetical order by name.
+     *
+     * @param prefix the start of the name, which is case-sensitive
+     * @param limit the maximum number of patients to return
+     * @return a list of patients whose names start with prefix
+     */
+    public List<Patient> findPatientsByNamePrefix(String prefix, int limit) {
+        List<List<Map.Entry<NameIndex.Key, Patient>>> runs;
+        runs = new ArrayList<List<Map.Entry<NameIndex.Key, Patient>>>();
+        for (ERShard shard : shards)
+            runs.add(shard.allByName.findByPrefix(prefix, limit));
+        return patients(ERShard.merge(runs, limit, false));
+    }
+
+    /**
+     * Returns the patients whose names or health card numbers best match
+     * the given text, best match first. Partial and misspelled input still
+     * matches, so this can be used when no patient has exactly the health
+     * card number typed.
+     *
+     * @param text the text to search for
+     * @param limit the maximum number of patients to return
+     * @return the patients which best match the text
+     */
+    public List<Patient> searchPatients(String text, int limit) {
+        List<List<Map.Entry<TrigramIndex.Match, Patient>>> runs;
+        runs = new ArrayList<List<Map.Entry<TrigramIndex.Match, Patient>>>();
+        for (ERShard shard : shards)
+            runs.add(shard.trigrams.search(text, limit));
+        return patients(ERShard.merge(runs, limit, false));
+    }
 
-        return sortedList;
+    /**
+     * Returns the list of patients who have been seen by a doctor, in no
+     * particular order. Only the seen partition of each shard is read.
+     *
+     * @return the list of patients who have been seen by a doctor
+     */
+    public List<Patient> getSeenPatients() {
+        List<Patient> seen = new ArrayList<Patient>();
+        for (ERShard shard : shards)
+            seen.addAll(shard.seen());
+        return seen;
     }
 
     /**
@@ -122,64 +865,443 @@ public class ER {
      * @return the list of waiting patients in descending order by urgency.
      */
     public List<Patient> getWaitingPatientsByUrgency() {
+        // The indexes are kept sorted as patients change, so no sort is needed
+        return patients(ordered(ERShard.BY_URGENCY, null, false, Integer.MAX_VALUE, false));
+    }
 
-        // Create a List of all patients
-        List<Patient> sortedList = new ArrayList<Patient>();
-
-        // Only add waiting patients to the list
-        for (Patient patient : allPatients.values())
-            if (!patient.hasBeenSeenByDoctor())
-                sortedList.add(patient);
-
-        // Create a comparator to be used to sort the list by patient urgency
-        Comparator<Patient> urgencyComparator = new Comparator<Patient>() {
-            @Override
-            public int compare(Patient p1, Patient p2) {
-                int comparison = p2.getUrgency().compareTo(p1.getUrgency());
-                if (comparison == 0)
-                    return p2.getArrivalTime().compareTo(p1.getArrivalTime());
-                return comparison;
-            }
-        };
+    /**
+     * Returns the k most urgent waiting patients in descending order by
+     * urgency, with the same ties broken by latest arrival first. Only the
+     * first k patients of each shard's ordering are read, so this takes
+     * O(k log s) for s shards no matter how many patients are waiting.
+     *
+     * @param k the maximum number of patients to return
+     * @return the k most urgent waiting patients
+     */
+    public List<Patient> topWaitingByUrgency(int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative.");
+        return patients(ordered(ERShard.BY_URGENCY, null, false, k, false));
+    }
 
-        // Sort the list using the comparator with O(n log n) performance
-        Collections.sort(sortedList, urgencyComparator);
+    /**
+     * Returns at most limit patients starting at the given offset into the
+     * list of waiting patients in descending order by urgency.
+     *
+     * @param offset the number of patients to skip
+     * @param limit the maximum number of patients to return
+     * @return a slice of waiting patients in descending order by urgency
+     */
+    public List<Patient> getWaitingPatientsByUrgency(int offset, int limit) {
+        return slice(ERShard.BY_URGENCY, offset, limit, false);
+    }
 
-        return sortedList;
+    /**
+     * Returns the page of at most limit patients which follow the given
+     * cursor in the list of waiting patients in descending order by urgency.
+     *
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @param limit the maximum number of patients to return
+     * @return a page of waiting patients in descending order by urgency
+     */
+    public PatientPage getWaitingPatientsByUrgency(PatientPage.Cursor cursor, int limit) {
+        return page(ERShard.BY_URGENCY, cursor, limit, false);
     }
 
     /**
      * Returns the list of waiting patients by arrival time
-     * from earliest to latest.
+     * from latest to earliest.
      *
      * @return the list of waiting patients by arrival time
-     * from earliest to latest.
+     * from latest to earliest.
      */
     public List<Patient> getWaitingPatientsByArrivalTime() {
-        // Create a List of all patients
-        List<Patient> sortedList = new ArrayList<Patient>();
+        return patients(ordered(ERShard.BY_ARRIVAL_TIME, null, false, Integer.MAX_VALUE, true));
+    }
+
+    /**
+     * Returns at most limit patients starting at the given offset into the
+     * list of waiting patients by arrival time from latest to earliest.
+     *
+     * @param offset the number of patients to skip
+     * @param limit the maximum number of patients to return
+     * @return a slice of waiting patients by arrival time from latest to
+     * earliest
+     */
+    public List<Patient> getWaitingPatientsByArrivalTime(int offset, int limit) {
+        return slice(ERShard.BY_ARRIVAL_TIME, offset, limit, true);
+    }
+
+    /**
+     * Returns the page of at most limit patients which follow the given
+     * cursor in the list of waiting patients by arrival time from latest to
+     * earliest.
+     *
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @param limit the maximum number of patients to return
+     * @return a page of waiting patients by arrival time from latest to
+     * earliest
+     */
+    public PatientPage getWaitingPatientsByArrivalTime(PatientPage.Cursor cursor, int limit) {
+        return page(ERShard.BY_ARRIVAL_TIME, cursor, limit, true);
+    }
+
+    /**
+     * Returns the list of waiting patients who arrived from the given start
+     * time (inclusive) to the given end time (exclusive), sorted by arrival
+     * time.
+     *
+     * @param from the earliest arrival time to include
+     * @param to the arrival time at which to stop, exclusive
+     * @param latestFirst true to sort from latest to earliest, false to sort
+     * from earliest to latest
+     * @return the list of waiting patients who arrived in the given range
+     */
+    public List<Patient> getWaitingPatientsByArrivalTime(Calendar from,
+                                                         Calendar to,
+                                                         boolean latestFirst) {
+        ArrivalTimeIndex.Key fromKey;
+        ArrivalTimeIndex.Key toKey;
+        fromKey = ArrivalTimeIndex.Key.lowest(from.getTimeInMillis());
+        toKey = ArrivalTimeIndex.Key.lowest(to.getTimeInMillis());
+
+        List<List<Map.Entry<ArrivalTimeIndex.Key, Patient>>> runs;
+        runs = new ArrayList<List<Map.Entry<ArrivalTimeIndex.Key, Patient>>>();
+        for (ERShard shard : shards)
+            runs.add(shard.waitingByArrivalTime.range(fromKey, toKey, latestFirst));
+        return patients(ERShard.merge(runs, Integer.MAX_VALUE, latestFirst));
+    }
+
+    /**
+     * Returns the patients which meet every condition of the given query,
+     * in the order and up to the limit it asks for. The query is answered
+     * from one of the orderings this ER keeps where it can be; explain()
+     * describes how.
+     *
+     * @param query the query to answer
+     * @return the patients which meet the query
+     */
+    public List<Patient> query(PatientQuery query) {
+        return execute(plan(query), query);
+    }
+
+    /**
+     * Returns how the given query would be answered, for example to check
+     * whether it reads every patient.
+     *
+     * @param query a query
+     * @return the plan for the query
+     */
+    public QueryPlan explain(PatientQuery query) {
+        Scan<?> scan = plan(query);
+        if (scan == null)
+            return new QueryPlan(QueryPlan.Access.FULL_SCAN, false,
+                                 query.getSort() != PatientQuery.Sort.NONE);
+        return scan.plan;
+    }
+
+    /**
+     * A plan to read a range of one ordering.
+     *
+     * @param <K> the type of the sort key of the ordering
+     */
+    private static class Scan<K extends Comparable<K>> {
+        final ERShard.Ordering<K> ordering;
+        final K lower;
+        final K upper;
+        final boolean descending;
+        final boolean inOrder;
+        final QueryPlan plan;
+
+        /**
+         * Constructs a plan to read the keys from lower (inclusive) to upper
+         * (exclusive), where a null bound leaves that end open.
+         */
+        Scan(ERShard.Ordering<K> ordering, QueryPlan.Access access,
+             K lower, K upper, boolean descending, boolean inOrder,
+             PatientQuery.Sort sort) {
+            this.ordering = ordering;
+            this.lower = lower;
+            this.upper = upper;
+            this.descending = descending;
+            this.inOrder = inOrder;
+            this.plan = new QueryPlan(access, lower != null || upper != null,
+                                      !inOrder && sort != PatientQuery.Sort.NONE);
+        }
+
+        /**
+         * Returns how useful this plan is: reading a range counts for more
+         * than reading in the right order.
+         */
+        int score() {
+            return (plan.isBounded() ? 2 : 0) + (inOrder ? 1 : 0);
+        }
+    }
+
+    /**
+     * Chooses how to answer the given query. Each ordering is a candidate,
+     * and the one which reads the smallest range in the order the query
+     * asks for is chosen. Returns null if no ordering helps, in which case
+     * every patient is read.
+     *
+     * @param query a query
+     * @return the chosen plan, or null for a full scan
+     */
+    private Scan<?> plan(PatientQuery query) {
+        PatientQuery.Sort sort = query.getSort();
+        List<Scan<?>> candidates = new ArrayList<Scan<?>>();
+
+        // The urgency and arrival time orderings only hold waiting patients
+        if (query.isWaitingOnly()) {
+            Long from = query.getArrivedFrom();
+            Long to = query.getArrivedTo();
+            boolean latestFirst = sort == PatientQuery.Sort.LATEST_ARRIVAL_FIRST;
+            candidates.add(new Scan<ArrivalTimeIndex.Key>(
+                    ERShard.BY_ARRIVAL_TIME, QueryPlan.Access.ARRIVAL_TIME_INDEX,
+                    from == null ? null : ArrivalTimeIndex.Key.lowest(from),
+                    to == null ? null : ArrivalTimeIndex.Key.lowest(to),
+                    latestFirst,
+                    latestFirst || sort == PatientQuery.Sort.EARLIEST_ARRIVAL_FIRST, sort));
+        }
+
+        // An empty prefix matches every name, so it bounds nothing
+        String prefix = query.getNamePrefix();
+        boolean hasPrefix = prefix != null && !prefix.isEmpty();
+        candidates.add(new Scan<NameIndex.Key>(
+                ERShard.BY_NAME, QueryPlan.Access.NAME_INDEX,
+                hasPrefix ? NameIndex.Key.lowest(prefix) : null,
+                hasPrefix ? NameIndex.Key.afterPrefix(prefix) : null,
+                false, sort == PatientQuery.Sort.NAME, sort));
+
+        if (query.isWaitingOnly()) {
+            Integer minUrgency = query.getMinUrgency();
+            boolean bounded = minUrgency != null && minUrgency > Integer.MIN_VALUE;
+            candidates.add(new Scan<UrgencyIndex.Key>(
+                    ERShard.BY_URGENCY, QueryPlan.Access.URGENCY_INDEX,
+                    null, bounded ? UrgencyIndex.Key.below(minUrgency) : null,
+                    false, sort == PatientQuery.Sort.URGENCY, sort));
+        }
 
-        // Only add waiting patients to the list
-        for (Patient patient : allPatients.values())
-            if (!patient.hasBeenSeenByDoctor())
-                sortedList.add(patient);
+        // Candidates earlier in the list win ties
+        Scan<?> best = null;
+        for (Scan<?> candidate : candidates)
+            if (candidate.score() > 0 && (best == null || candidate.score() > best.score()))
+                best = candidate;
+        return best;
+    }
+
+    /**
+     * Answers the given query with the given plan.
+     *
+     * @param scan the plan, or null for a full scan
+     * @param query the query to answer
+     * @return the patients which meet the query
+     */
+    private List<Patient> execute(Scan<?> scan, PatientQuery query) {
+        int limit = query.getLimit();
+        PatientQuery.Sort sort = query.getSort();
+        List<Patient> matches = new ArrayList<Patient>();
+        if (limit == 0)
+            return matches;
+
+        if (scan != null) {
+            matches = scan(scan, query, scan.plan.needsSort() ? Integer.MAX_VALUE : limit);
+            if (!scan.plan.needsSort())
+                return matches;
+        } else {
+            // Without a sort the first matches found are enough, and a query
+            // for waiting patients only reads the waiting partitions
+            int wanted = sort == PatientQuery.Sort.NONE ? limit : Integer.MAX_VALUE;
+            for (ERShard shard : shards) {
+                for (Patient patient : query.isWaitingOnly() ? shard.waiting() : shard.patients()) {
+                    if (query.matches(patient))
+                        matches.add(patient);
+                    if (matches.size() >= wanted)
+                        return matches;
+                }
+            }
+        }
+
+        switch (sort) {
+            case NAME:
+                matches = sort(matches, ERShard.BY_NAME, false);
+                break;
+            case URGENCY:
+                matches = sort(matches, ERShard.BY_URGENCY, false);
+                break;
+            case EARLIEST_ARRIVAL_FIRST:
+                matches = sort(matches, ERShard.BY_ARRIVAL_TIME, false);
+                break;
+            case LATEST_ARRIVAL_FIRST:
+                matches = sort(matches, ERShard.BY_ARRIVAL_TIME, true);
+                break;
+            default:
+                break;
+        }
+        return matches.size() > limit ? matches.subList(0, limit) : matches;
+    }
 
-        // Create a comparator to be used to sort the list by arrival time
-        Comparator<Patient> arrivalTimeComparator = new Comparator<Patient>() {
+    /**
+     * Reads the range of an ordering given by a plan, in batches, until
+     * limit patients which meet the query are found or the range ends.
+     *
+     * @param scan the plan
+     * @param query the query to answer
+     * @param limit the maximum number of patients to return
+     * @return the patients in the range which meet the query, in order
+     */
+    private <K extends Comparable<K>> List<Patient> scan(Scan<K> scan,
+                                                         PatientQuery query,
+                                                         int limit) {
+        List<Patient> matches = new ArrayList<Patient>();
+        int batch = Math.min(Math.max(limit, 16), 1024);
+        K fromKey = scan.descending ? scan.upper : scan.lower;
+        // The upper bound is exclusive, the lower bound inclusive
+        boolean inclusive = !scan.descending;
+        while (true) {
+            List<Map.Entry<K, Patient>> entries;
+            entries = ordered(scan.ordering, fromKey, inclusive, batch, scan.descending);
+            for (Map.Entry<K, Patient> entry : entries) {
+                K key = entry.getKey();
+                if (scan.descending ? scan.lower != null && key.compareTo(scan.lower) < 0
+                                    : scan.upper != null && key.compareTo(scan.upper) >= 0)
+                    return matches;
+                if (query.matches(entry.getValue())) {
+                    matches.add(entry.getValue());
+                    if (matches.size() >= limit)
+                        return matches;
+                }
+            }
+            if (entries.size() < batch)
+                return matches;
+            fromKey = entries.get(entries.size() - 1).getKey();
+            inclusive = false;
+        }
+    }
+
+    /**
+     * Returns the given patients sorted in the given ordering.
+     *
+     * @param patients the patients to sort
+     * @param ordering the ordering to sort by
+     * @param descending true to sort in reverse
+     * @return the sorted patients
+     */
+    private static <K extends Comparable<K>> List<Patient> sort(
+            List<Patient> patients, ERShard.Ordering<K> ordering,
+            final boolean descending) {
+        // Compute each key once rather than on every comparison
+        List<Map.Entry<K, Patient>> entries = new ArrayList<Map.Entry<K, Patient>>(patients.size());
+        for (Patient patient : patients)
+            entries.add(new AbstractMap.SimpleImmutableEntry<K, Patient>(
+                    ordering.keyOf(patient), patient));
+        Collections.sort(entries, new Comparator<Map.Entry<K, Patient>>() {
             @Override
-            public int compare(Patient p1, Patient p2) {
-                return p1.getArrivalTime().compareTo(p2.getArrivalTime());
+            public int compare(Map.Entry<K, Patient> entry1, Map.Entry<K, Patient> entry2) {
+                int comparison = entry1.getKey().compareTo(entry2.getKey());
+                return descending ? -comparison : comparison;
             }
-        };
+        });
+        return patients(entries);
+    }
+
+    /**
+     * Returns at most limit entries which follow fromKey in the given
+     * ordering, merged from every shard.
+     *
+     * @param ordering the ordering to read
+     * @param fromKey the key to start from, or null to start at the front
+     * @param inclusive true to include fromKey itself
+     * @param limit the maximum number of entries to return
+     * @param descending true to read the ordering in reverse
+     * @return the entries which follow fromKey
+     */
+    private <K extends Comparable<K>> List<Map.Entry<K, Patient>> ordered(
+            ERShard.Ordering<K> ordering, K fromKey, boolean inclusive, int limit,
+            boolean descending) {
+        if (ordering == ERShard.BY_URGENCY)
+            refreshUrgencies();
+        List<List<Map.Entry<K, Patient>>> runs = new ArrayList<List<Map.Entry<K, Patient>>>();
+        for (ERShard shard : shards)
+            runs.add(ordering.in(shard).entries(fromKey, inclusive, limit, descending));
+        return ERShard.merge(runs, limit, descending);
+    }
+
+    /**
+     * Returns at most limit patients starting at the given offset into the
+     * given ordering.
+     *
+     * @param ordering the ordering to read
+     * @param offset the number of patients to skip
+     * @param limit the maximum number of patients to return
+     * @param descending true to read the ordering in reverse
+     * @return the patients in the given slice of the ordering
+     */
+    private <K extends Comparable<K>> List<Patient> slice(
+            ERShard.Ordering<K> ordering, int offset, int limit, boolean descending) {
+        // Guard against overflow when limit is large
+        int end = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<Map.Entry<K, Patient>> entries = ordered(ordering, null, false, end, descending);
+        if (offset >= entries.size())
+            return new ArrayList<Patient>();
+        return patients(entries.subList(offset, entries.size()));
+    }
 
-        // Sort the list using the comparator with O(n log n) performance
-        Collections.sort(sortedList, arrivalTimeComparator);
-        Collections.reverse(sortedList);
-        return sortedList;
+    /**
+     * Returns the page of at most limit patients which follow the given
+     * cursor in the given ordering. Since the cursor holds a key rather than
+     * an offset, the page is not shifted by patients added or removed before
+     * it.
+     *
+     * @param ordering the ordering to read
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @param limit the maximum number of patients to return, at least 1
+     * @param descending true to read the ordering in reverse
+     * @return the page of patients which follow the cursor
+     */
+    private <K extends Comparable<K>> PatientPage page(
+            ERShard.Ordering<K> ordering, PatientPage.Cursor cursor, int limit,
+            boolean descending) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Page limit must be at least 1.");
+
+        K fromKey = null;
+        if (cursor != null) {
+            @SuppressWarnings("unchecked")
+            K after = (K) cursor.keyFor(ordering, descending);
+            fromKey = after;
+        }
+
+        // Read one more entry than needed to learn whether there is a next page
+        int end = limit == Integer.MAX_VALUE ? limit : limit + 1;
+        List<Map.Entry<K, Patient>> entries = ordered(ordering, fromKey, false, end, descending);
+        PatientPage.Cursor nextCursor = null;
+        if (entries.size() > limit) {
+            entries = entries.subList(0, limit);
+            K lastKey = entries.get(limit - 1).getKey();
+            nextCursor = new PatientPage.Cursor(ordering, lastKey, descending);
+        }
+        return new PatientPage(patients(entries), nextCursor);
+    }
+
+    /**
+     * Returns the patients of the given index entries, in the same order.
+     *
+     * @param entries index entries
+     * @return the patients of the entries
+     */
+    private static <K> List<Patient> patients(List<Map.Entry<K, Patient>> entries) {
+        List<Patient> patients = new ArrayList<Patient>(entries.size());
+        for (Map.Entry<K, Patient> entry : entries)
+            patients.add(entry.getValue());
+        return patients;
     }
 
     /**
-     * Saves this ER as JSON to the specified stream.
+     * Saves this ER as JSON to the specified stream. Patients are written
+     * one at a time through a buffer, so saving takes the same memory
+     * however many patients there are. The stream is flushed but not
+     * closed.
      *
      * @param outputStream the stream to write to
      * @throws IOException
@@ -187,22 +1309,102 @@ public class ER {
     public void saveToStream(OutputStream outputStream) throws IOException {
         Gson gson = new GsonBuilder()
                 .enableComplexMapKeySerialization()
+                .registerTypeAdapter(VitalSignsRecord.class, new VitalSignsRecord.Adapter())
                 .create();
-        String allPatientsAsJson = gson.toJson(allPatients);
-        outputStream.write(allPatientsAsJson.getBytes());
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(outputStream, "UTF-8")));
+
+        writer.beginObject();
+        for (ERShard shard : shards) {
+            for (Map.Entry<String, Patient> entry : shard.entries()) {
+                // Write each patient under the number it is stored at, which
+                // is not its own number while that belongs to another patient,
+                // so that loading puts every patient back where it was
+                Patient patient = entry.getValue();
+                // Write each patient while holding its lock, so that a
+                // patient is never saved halfway through an update
+                synchronized (patient) {
+                    writer.name(entry.getKey());
+                    gson.toJson(patient, Patient.class, writer);
+                }
+            }
+        }
+        writer.endObject();
+        writer.flush();
     }
 
     /**
-     * Loads this ER from the specified JSON stream.
+     * Loads this ER from the specified JSON stream. Patients are read one at
+     * a time through a buffer, and this ER is only changed once the whole
+     * stream has been read. An empty stream holds no patients.
      *
      * @param inputStream the stream of JSON to read from
      * @throws IOException
      */
     public void loadFromStream(InputStream inputStream) throws IOException {
-        Gson gson = new Gson();
-        InputStreamReader isr = new InputStreamReader(inputStream);
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(Patient.class, new PatientDeserializer())
+                .create();
+        JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(inputStream, "UTF-8")));
+        reader.setLenient(true);
+
+        Map<String, Patient> loadedPatients = readPatients(gson, reader);
 
-        Type listType = new TypeToken<Map<String, Patient>>(){}.getType();
-        allPatients = gson.fromJson(isr, listType);
+        // Replace every patient and rebuild the orderings with all updates
+        // stopped
+        lockAll();
+        try {
+            for (ERShard shard : shards) {
+                for (Patient patient : shard.patients())
+                    patient.removeChangeListener(changeListener);
+                shard.clear();
+            }
+            keys.clear();
+            for (Map.Entry<String, Patient> entry : loadedPatients.entrySet()) {
+                Patient patient = entry.getValue();
+                shardFor(entry.getKey()).put(entry.getKey(), patient);
+                keys.put(patient.getId(), entry.getKey());
+                patient.addChangeListener(changeListener);
+            }
+            version.incrementAndGet();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Returns the patients in the given reader, by health card number. The
+     * reader holds one JSON object from health card numbers to patients,
+     * null, or nothing at all.
+     *
+     * @param gson the Gson to read each patient with
+     * @param reader the reader to read from
+     * @return the patients read
+     * @throws IOException
+     */
+    private static Map<String, Patient> readPatients(Gson gson, JsonReader reader)
+            throws IOException {
+        Map<String, Patient> patients = new HashMap<String, Patient>();
+        JsonToken token;
+        try {
+            token = reader.peek();
+        } catch (EOFException e) {
+            return patients;
+        }
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return patients;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String healthCardNumber = reader.nextName();
+            Patient patient = gson.fromJson(reader, Patient.class);
+            if (patient != null)
+                patients.put(healthCardNumber, patient);
+        }
+        reader.endObject();
+        return patients;
     }
 }
@@ -0,0 +1,346 @@
+package com.example.itriage.models;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One partition of the patients in an ER, with its own map of patients and
+ * its own indexes. An ER assigns each patient to a shard by the hash of their
+ * health card number, so writers of patients in different shards never
+ * contend for the same index.
+ *
+ * A shard does not lock patients itself; the ER holds the lock stripe of a
+ * patient while changing that patient's shard.
+ */
+class ERShard {
+
+    /**
+     * One of the orderings kept by every shard, which selects the matching
+     * index of a shard.
+     *
+     * @param <K> the type of the sort key of the ordering
+     */
+    abstract static class Ordering<K extends Comparable<K>> {
+
+        // An index used only to compute the keys of patients
+        private final PatientIndex<K> keys;
+
+        Ordering(PatientIndex<K> keys) {
+            this.keys = keys;
+        }
+
+        abstract PatientIndex<K> in(ERShard shard);
+
+        /**
+         * Returns the sort key of the given patient in this ordering.
+         *
+         * @param patient a patient
+         * @return the sort key of the patient
+         */
+        K keyOf(Patient patient) {
+            return keys.keyOf(patient);
+        }
+    }
+
+    // Waiting patients in descending order by urgency
+    static final Ordering<UrgencyIndex.Key> BY_URGENCY = new Ordering<UrgencyIndex.Key>(new UrgencyIndex()) {
+        @Override
+        PatientIndex<UrgencyIndex.Key> in(ERShard shard) {
+            return shard.waitingByUrgency;
+        }
+    };
+
+    // Waiting patients in ascending order by arrival time
+    static final Ordering<ArrivalTimeIndex.Key> BY_ARRIVAL_TIME = new Ordering<ArrivalTimeIndex.Key>(new ArrivalTimeIndex()) {
+        @Override
+        PatientIndex<ArrivalTimeIndex.Key> in(ERShard shard) {
+            return shard.waitingByArrivalTime;
+        }
+    };
+
+    // All patients in alphabetical order by name
+    static final Ordering<NameIndex.Key> BY_NAME = new Ordering<NameIndex.Key>(new NameIndex()) {
+        @Override
+        PatientIndex<NameIndex.Key> in(ERShard shard) {
+            return shard.allByName;
+        }
+    };
+
+    // Map of the patients in this shard, with health card numbers as keys
+    private final Map<String, Patient> patients;
+
+    // The patients of this shard who have not been seen by a doctor, and
+    // those who have, with health card numbers as keys
+    private final Map<String, Patient> waiting;
+    private final Map<String, Patient> seen;
+
+    // Waiting patients in descending order by urgency
+    final UrgencyIndex waitingByUrgency;
+
+    // Waiting patients in ascending order by arrival time
+    final ArrivalTimeIndex waitingByArrivalTime;
+
+    // All patients in alphabetical order by name
+    final NameIndex allByName;
+
+    // Trigrams of the names and health card numbers of all patients
+    final TrigramIndex trigrams;
+
+    // Every ordered index above, which must be updated whenever a patient changes
+    private final List<PatientIndex<?>> indexes;
+
+    /**
+     * Constructs an empty shard.
+     */
+    ERShard() {
+        this.patients = new ConcurrentHashMap<String, Patient>();
+        this.waiting = new ConcurrentHashMap<String, Patient>();
+        this.seen = new ConcurrentHashMap<String, Patient>();
+        this.waitingByUrgency = new UrgencyIndex();
+        this.waitingByArrivalTime = new ArrivalTimeIndex();
+        this.allByName = new NameIndex();
+        this.trigrams = new TrigramIndex();
+        this.indexes = new ArrayList<PatientIndex<?>>();
+        this.indexes.add(waitingByUrgency);
+        this.indexes.add(waitingByArrivalTime);
+        this.indexes.add(allByName);
+    }
+
+    /**
+     * Returns the patient with the given health card number, or null.
+     *
+     * @param healthCardNumber a health card number
+     * @return the patient with the health card number, or null
+     */
+    Patient get(String healthCardNumber) {
+        return patients.get(healthCardNumber);
+    }
+
+    /**
+     * Returns a view of the patients in this shard.
+     *
+     * @return a view of the patients in this shard
+     */
+    Collection<Patient> patients() {
+        return patients.values();
+    }
+
+    /**
+     * Returns a view of the patients in this shard keyed by the health card
+     * numbers they are stored under. A patient is stored under its old
+     * number while its new number belongs to another patient.
+     *
+     * @return the patients in this shard by stored health card number
+     */
+    Set<Map.Entry<String, Patient>> entries() {
+        return patients.entrySet();
+    }
+
+    /**
+     * Returns a view of the patients in this shard who have not been seen by
+     * a doctor.
+     *
+     * @return a view of the waiting patients in this shard
+     */
+    Collection<Patient> waiting() {
+        return waiting.values();
+    }
+
+    /**
+     * Returns a view of the patients in this shard who have been seen by a
+     * doctor.
+     *
+     * @return a view of the seen patients in this shard
+     */
+    Collection<Patient> seen() {
+        return seen.values();
+    }
+
+    /**
+     * Adds the given patient under the given health card number and indexes
+     * it, replacing and unindexing any other patient with that number.
+     *
+     * @param healthCardNumber the health card number of the patient
+     * @param patient the patient to add
+     * @return the patient which was replaced, or null
+     */
+    Patient put(String healthCardNumber, Patient patient) {
+        Patient previous = patients.put(healthCardNumber, patient);
+        if (previous != null && previous != patient)
+            unindex(previous);
+        partition(healthCardNumber, patient);
+        index(patient);
+        return previous;
+    }
+
+    /**
+     * Removes and unindexes the patient with the given health card number.
+     *
+     * @param healthCardNumber the health card number of the patient
+     * @return the patient which was removed, or null
+     */
+    Patient remove(String healthCardNumber) {
+        Patient removed = patients.remove(healthCardNumber);
+        waiting.remove(healthCardNumber);
+        seen.remove(healthCardNumber);
+        if (removed != null)
+            unindex(removed);
+        return removed;
+    }
+
+    /**
+     * Moves the given patient in every index which depends on the given
+     * field.
+     *
+     * @param healthCardNumber the health card number the patient is stored
+     * under, which is not its own while that belongs to another patient
+     * @param patient a patient in this shard
+     * @param field the field which changed
+     * @return true if any index was updated
+     */
+    boolean update(String healthCardNumber, Patient patient, PatientChangeEvent.Field field) {
+        boolean moved = false;
+        if (field == PatientChangeEvent.Field.SEEN_BY_DOCTOR)
+            partition(healthCardNumber, patient);
+        for (PatientIndex<?> index : indexes) {
+            if (index.dependsOn(field)) {
+                index.update(patient);
+                moved = true;
+            }
+        }
+        if (trigrams.dependsOn(field))
+            trigrams.update(patient);
+        return moved;
+    }
+
+    /**
+     * Moves the given patient to its position in the urgency index, after
+     * the rules for urgency have changed.
+     *
+     * @param patient a patient in this shard
+     */
+    void rescore(Patient patient) {
+        waitingByUrgency.update(patient);
+    }
+
+    /**
+     * Returns the waiting patients of this shard whose urgency may have
+     * changed with the date since they were last scored.
+     *
+     * @param today the current epoch day
+     * @return the patients to re-score
+     */
+    List<Patient> expiredUrgencies(int today) {
+        return waitingByUrgency.expired(today);
+    }
+
+    /**
+     * Puts the given patient in the waiting or the seen partition, and takes
+     * it out of the other.
+     *
+     * @param healthCardNumber the health card number of the patient
+     * @param patient a patient in this shard
+     */
+    private void partition(String healthCardNumber, Patient patient) {
+        if (patient.hasBeenSeenByDoctor()) {
+            waiting.remove(healthCardNumber);
+            seen.put(healthCardNumber, patient);
+        } else {
+            seen.remove(healthCardNumber);
+            waiting.put(healthCardNumber, patient);
+        }
+    }
+
+    /**
+     * Adds the given patient to every index, or moves it to its new
+     * position if it is already indexed.
+     *
+     * @param patient the patient to index
+     */
+    void index(Patient patient) {
+        for (PatientIndex<?> index : indexes)
+            index.update(patient);
+        trigrams.update(patient);
+    }
+
+    /**
+     * Removes the given patient from every index.
+     *
+     * @param patient the patient to remove
+     */
+    private void unindex(Patient patient) {
+        for (PatientIndex<?> index : indexes)
+            index.remove(patient);
+        trigrams.remove(patient);
+    }
+
+    /**
+     * Removes every patient from this shard.
+     */
+    void clear() {
+        patients.clear();
+        waiting.clear();
+        seen.clear();
+        for (PatientIndex<?> index : indexes)
+            index.clear();
+        trigrams.clear();
+    }
+
+    /**
+     * Merges lists of index entries, each already in order, into one list of
+     * at most limit entries in the same order. This is a k-way merge which
+     * takes O(m log k) for m entries returned from k lists.
+     *
+     * @param runs the lists of entries to merge, each in order
+     * @param limit the maximum number of entries to return
+     * @param descending true if the lists are in reverse key order
+     * @return the merged entries
+     */
+    static <K extends Comparable<K>> List<Map.Entry<K, Patient>> merge(
+            List<List<Map.Entry<K, Patient>>> runs, int limit,
+            final boolean descending) {
+        if (runs.size() == 1) {
+            List<Map.Entry<K, Patient>> run = runs.get(0);
+            return run.size() > limit ? run.subList(0, limit) : run;
+        }
+
+        // The heads of the runs, with the next entry to take at the top
+        PriorityQueue<Head<K>> heads = new PriorityQueue<Head<K>>(
+                Math.max(1, runs.size()), new Comparator<Head<K>>() {
+            @Override
+            public int compare(Head<K> head1, Head<K> head2) {
+                int comparison = head1.key().compareTo(head2.key());
+                return descending ? -comparison : comparison;
+            }
+        });
+        for (List<Map.Entry<K, Patient>> run : runs)
+            if (!run.isEmpty())
+                heads.add(new Head<K>(run));
+
+        List<Map.Entry<K, Patient>> merged = new ArrayList<Map.Entry<K, Patient>>();
+        while (merged.size() < limit && !heads.isEmpty()) {
+            Head<K> head = heads.poll();
+            merged.add(head.run.get(head.position++));
+            if (head.position < head.run.size())
+                heads.add(head);
+        }
+        return merged;
+    }
+
+    /**
+     * The next entry to take from one list being merged.
+     */
+    private static class Head<K> {
+        final List<Map.Entry<K, Patient>> run;
+        int position;
+
+        Head(List<Map.Entry<K, Patient>> run) {
+            this.run = run;
+        }
+
+        K key() {
+            return run.get(position).getKey();
+        }
+    }
+
+}
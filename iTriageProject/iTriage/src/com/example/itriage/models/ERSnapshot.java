@@ -0,0 +1,114 @@
+package com.example.itriage.models;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of the patients in an ER and their orderings at one
+ * version of the ER. A snapshot never changes once it is created, so it can
+ * be read from any thread without locking.
+ *
+ * The set of patients and their orderings are fixed, but the patients
+ * themselves are the live Patient objects of the ER.
+ */
+public class ERSnapshot {
+
+    // The version of the ER this snapshot was taken at
+    private final long version;
+
+    // Map of all patients, with health card numbers as keys
+    private final Map<String, Patient> allPatients;
+
+    // All patients, in alphabetical order by name
+    private final List<Patient> allPatientsByName;
+
+    // Waiting patients, in descending order by urgency
+    private final List<Patient> waitingPatientsByUrgency;
+
+    // Waiting patients, by arrival time from latest to earliest
+    private final List<Patient> waitingPatientsByArrivalTime;
+
+    /**
+     * Constructs a snapshot. The given collections must not be changed
+     * afterwards.
+     */
+    ERSnapshot(long version, Map<String, Patient> allPatients,
+               List<Patient> allPatientsByName,
+               List<Patient> waitingPatientsByUrgency,
+               List<Patient> waitingPatientsByArrivalTime) {
+        this.version = version;
+        this.allPatients = Collections.unmodifiableMap(allPatients);
+        this.allPatientsByName = Collections.unmodifiableList(allPatientsByName);
+        this.waitingPatientsByUrgency = Collections.unmodifiableList(waitingPatientsByUrgency);
+        this.waitingPatientsByArrivalTime = Collections.unmodifiableList(waitingPatientsByArrivalTime);
+    }
+
+    /**
+     * Returns the version of the ER this snapshot was taken at. A snapshot
+     * with a greater version was taken after more changes to the ER.
+     *
+     * @return the version of the ER this snapshot was taken at
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the patient with the given health card number.
+     *
+     * @param healthCardNumber the health card number
+     * @return the patient with the given health card number
+     * @throws PatientNotFoundException if there was no such patient
+     */
+    public Patient getPatient(String healthCardNumber)
+            throws PatientNotFoundException {
+        Patient patient = allPatients.get(healthCardNumber);
+        if (patient == null) {
+            String format = "Patient with health card number %s was not found.";
+            throw new PatientNotFoundException(String.format(format, healthCardNumber));
+        }
+        return patient;
+    }
+
+    /**
+     * Returns the number of patients in this snapshot.
+     *
+     * @return the number of patients in this snapshot
+     */
+    public int size() {
+        return allPatients.size();
+    }
+
+    /**
+     * Returns an unmodifiable list of all patients, sorted in alphabetical
+     * order by name.
+     *
+     * @return a list of all patients, sorted in alphabetical order by name
+     */
+    public List<Patient> getAllPatientsByName() {
+        return allPatientsByName;
+    }
+
+    /**
+     * Returns an unmodifiable list of waiting patients in descending order
+     * by urgency.
+     *
+     * @return the list of waiting patients in descending order by urgency
+     */
+    public List<Patient> getWaitingPatientsByUrgency() {
+        return waitingPatientsByUrgency;
+    }
+
+    /**
+     * Returns an unmodifiable list of waiting patients by arrival time from
+     * latest to earliest.
+     *
+     * @return the list of waiting patients by arrival time from latest to
+     * earliest
+     */
+    public List<Patient> getWaitingPatientsByArrivalTime() {
+        return waitingPatientsByArrivalTime;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.example.itriage.models;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Conversions between calendar dates and epoch days, the number of days
+ * since 1970-01-01. The conversions use integer arithmetic on the proleptic
+ * Gregorian calendar and allocate nothing, except those which take or make
+ * a Calendar.
+ */
+final class EpochDays {
+
+    // The number of milliseconds in a day
+    static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private EpochDays() {
+    }
+
+    /**
+     * Returns the epoch day of the given date.
+     *
+     * @param year the year
+     * @param month the month, from 1 to 12
+     * @param day the day of the month, from 1; a day past the end of the
+     *            month rolls over into the next month
+     * @return the epoch day of the date
+     */
+    static int of(int year, int month, int day) {
+        // Count years from March, so that the leap day is the last of a year
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the epoch day of the date of the given calendar, in its own
+     * time zone.
+     *
+     * @param calendar a calendar
+     * @return the epoch day of the calendar's date
+     */
+    static int of(Calendar calendar) {
+        return of(calendar.get(Calendar.YEAR),
+                  calendar.get(Calendar.MONTH) + 1,
+                  calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Returns the epoch day of the given time in the given time zone.
+     *
+     * @param millis a time in milliseconds
+     * @param timeZone the time zone
+     * @return the epoch day of the time
+     */
+    static int fromMillis(long millis, TimeZone timeZone) {
+        long local = millis + timeZone.getOffset(millis);
+        long day = local / DAY_MILLIS;
+        if (local % DAY_MILLIS < 0)
+            day--;
+        return (int) day;
+    }
+
+    /**
+     * Returns the date of the given epoch day as the decimal number
+     * yyyymmdd, so that dates compare in the same order as their numbers.
+     *
+     * @param epochDay an epoch day
+     * @return the date as yyyymmdd
+     */
+    static int civil(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Returns the number of whole years from one epoch day to another, as
+     * a person's age is counted. Someone born on February 29 has a birthday
+     * on March 1 in other years.
+     *
+     * @param from the earlier epoch day
+     * @param to the later epoch day
+     * @return the number of whole years between the days
+     */
+    static int yearsBetween(int from, int to) {
+        return (civil(to) - civil(from)) / 10000;
+    }
+
+    /**
+     * Returns the epoch day on which someone born on the given day reaches
+     * the given age.
+     *
+     * @param birthDay the epoch day of birth
+     * @param age an age in years
+     * @return the epoch day of the birthday
+     */
+    static int birthday(int birthDay, int age) {
+        int date = civil(birthDay);
+        return of(date / 10000 + age, date / 100 % 100, date % 100);
+    }
+
+    /**
+     * Returns a new calendar at the start of the given epoch day in the
+     * default time zone.
+     *
+     * @param epochDay an epoch day
+     * @return a calendar at the start of the day
+     */
+    static Calendar toCalendar(int epochDay) {
+        int date = civil(epochDay);
+        return new GregorianCalendar(date / 10000, date / 100 % 100 - 1, date % 100);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.example.itriage.models;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of all patients in alphabetical order by name. Patients with the
+ * same name are ordered by id.
+ */
+class NameIndex extends PatientIndex<NameIndex.Key> {
+
+    /**
+     * The position of a patient in this index.
+     */
+    static class Key implements Comparable<Key> {
+        private final String name;
+        private final long id;
+
+        Key(String name, long id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        /**
+         * Returns the first key for the given name.
+         *
+         * @param name a name
+         * @return the key which sorts before every patient with the name
+         */
+        static Key lowest(String name) {
+            return new Key(name, Long.MIN_VALUE);
+        }
+
+        /**
+         * Returns a key which sorts after every name starting with the given
+         * prefix and before every other name after it, or null if there is
+         * no such key.
+         *
+         * @param prefix the start of a name
+         * @return the key which follows every name with the prefix, or null
+         */
+        static Key afterPrefix(String prefix) {
+            // Increment the last character which can be incremented
+            for (int i = prefix.length() - 1; i >= 0; i--) {
+                char c = prefix.charAt(i);
+                if (c != Character.MAX_VALUE)
+                    return lowest(prefix.substring(0, i) + (char) (c + 1));
+            }
+            return null;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int comparison = name.compareTo(other.name);
+            if (comparison == 0)
+                return id < other.id ? -1 : id > other.id ? 1 : 0;
+            return comparison;
+        }
+    }
+
+    @Override
+    Key keyOf(Patient patient) {
+        return new Key(patient.getName(), patient.getId());
+    }
+
+    @Override
+    boolean dependsOn(PatientChangeEvent.Field field) {
+        switch (field) {
+            case NAME:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns at most limit entries of patients whose names start with the
+     * given prefix, in alphabetical order by name. This takes
+     * O(log n + limit).
+     *
+     * @param prefix the start of the name, which is case-sensitive
+     * @param limit the maximum number of entries to return
+     * @return the entries of patients whose names start with prefix
+     */
+    List<Map.Entry<Key, Patient>> findByPrefix(String prefix, int limit) {
+        // Names starting with prefix sort directly at or after the prefix
+        List<Map.Entry<Key, Patient>> matches;
+        matches = entries(Key.lowest(prefix), true, limit, false);
+        for (int i = 0; i < matches.size(); i++) {
+            if (!matches.get(i).getKey().name.startsWith(prefix))
+                return matches.subList(0, i);
+        }
+        return matches;
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.example.itriage.models;
+
+/**
+ * Encodes a reading of vital signs in a single long, so that histories,
+ * snapshots and messages of vital signs can be kept as arrays of longs
+ * instead of one VitalSigns object per reading.
+ *
+ * Each component takes 16 bits, from the highest to the lowest: the
+ * temperature in tenths of a degree, the systolic blood pressure, the
+ * diastolic blood pressure and the heart rate. Every component must lie
+ * between 0 and MAX_COMPONENT, and temperatures are rounded to the nearest
+ * tenth of a degree.
+ */
+public final class PackedVitalSigns {
+
+    // The largest value of a component, in its own units
+    public static final int MAX_COMPONENT = 0xffff;
+
+    // The number of components of a reading
+    static final int COMPONENTS = 4;
+
+    // The number of bits taken by each component
+    private static final int COMPONENT_BITS = 16;
+
+    // The position of the lowest bit of each component
+    private static final int TEMPERATURE_SHIFT = 3 * COMPONENT_BITS;
+    private static final int SYSTOLIC_SHIFT = 2 * COMPONENT_BITS;
+    private static final int DIASTOLIC_SHIFT = COMPONENT_BITS;
+    private static final int HEART_RATE_SHIFT = 0;
+
+    private PackedVitalSigns() {
+    }
+
+    /**
+     * Returns the given vital signs encoded in a long.
+     *
+     * @param temperature the temperature in degrees
+     * @param systolicBloodPressure the systolic blood pressure
+     * @param diastolicBloodPressure the diastolic blood pressure
+     * @param heartRate the heart rate in beats per minute
+     * @return the vital signs encoded in a long
+     * @throws IllegalArgumentException if a component is out of range
+     */
+    public static long pack(double temperature, int systolicBloodPressure,
+                            int diastolicBloodPressure, int heartRate) {
+        long temperatureTenths = Math.round(temperature * 10);
+        return (long) checkComponent(temperatureTenths, "temperature in tenths of a degree") << TEMPERATURE_SHIFT
+                | (long) checkComponent(systolicBloodPressure, "systolic blood pressure") << SYSTOLIC_SHIFT
+                | (long) checkComponent(diastolicBloodPressure, "diastolic blood pressure") << DIASTOLIC_SHIFT
+                | (long) checkComponent(heartRate, "heart rate") << HEART_RATE_SHIFT;
+    }
+
+    /**
+     * Returns the given vital signs encoded in a long.
+     *
+     * @param vitalSigns the vital signs to encode
+     * @return the vital signs encoded in a long
+     * @throws IllegalArgumentException if a component is out of range
+     */
+    public static long pack(VitalSigns vitalSigns) {
+        return pack(vitalSigns.getTemperature(),
+                    (int) vitalSigns.getSystolicBloodPressure(),
+                    (int) vitalSigns.getDiastolicBloodPressure(),
+                    (int) vitalSigns.getHeartRate());
+    }
+
+    /**
+     * Returns a new VitalSigns decoded from the given long.
+     *
+     * @param packed vital signs encoded by pack
+     * @return the decoded vital signs
+     */
+    public static VitalSigns unpack(long packed) {
+        return new VitalSigns(temperature(packed), systolicBloodPressure(packed),
+                              diastolicBloodPressure(packed), heartRate(packed));
+    }
+
+    /**
+     * Returns the temperature of the given packed vital signs.
+     *
+     * @param packed vital signs encoded by pack
+     * @return the temperature in degrees
+     */
+    public static double temperature(long packed) {
+        return ((int) (packed >>> TEMPERATURE_SHIFT) & MAX_COMPONENT) / 10.0;
+    }
+
+    /**
+     * Returns the systolic blood pressure of the given packed vital signs.
+     *
+     * @param packed vital signs encoded by pack
+     * @return the systolic blood pressure
+     */
+    public static int systolicBloodPressure(long packed) {
+        return (int) (packed >>> SYSTOLIC_SHIFT) & MAX_COMPONENT;
+    }
+
+    /**
+     * Returns the diastolic blood pressure of the given packed vital signs.
+     *
+     * @param packed vital signs encoded by pack
+     * @return the diastolic blood pressure
+     */
+    public static int diastolicBloodPressure(long packed) {
+        return (int) (packed >>> DIASTOLIC_SHIFT) & MAX_COMPONENT;
+    }
+
+    /**
+     * Returns the heart rate of the given packed vital signs.
+     *
+     * @param packed vital signs encoded by pack
+     * @return the heart rate in beats per minute
+     */
+    public static int heartRate(long packed) {
+        return (int) (packed >>> HEART_RATE_SHIFT) & MAX_COMPONENT;
+    }
+
+    /**
+     * Returns a component of the given packed vital signs in the units in
+     * which it is packed, where components are numbered from the highest,
+     * the temperature in tenths of a degree, starting at 0.
+     *
+     * @param packed vital signs encoded by pack
+     * @param index the number of the component, less than COMPONENTS
+     * @return the value of the component
+     */
+    static int component(long packed, int index) {
+        return (int) (packed >>> (COMPONENTS - 1 - index) * COMPONENT_BITS) & MAX_COMPONENT;
+    }
+
+    /**
+     * Returns the vital signs with the given components, in the order and
+     * units of component, encoded in a long.
+     *
+     * @param components the value of each component, between 0 and
+     * MAX_COMPONENT
+     * @return the vital signs encoded in a long
+     */
+    static long fromComponents(int[] components) {
+        long packed = 0;
+        for (int i = 0; i < COMPONENTS; i++)
+            packed = packed << COMPONENT_BITS | (components[i] & MAX_COMPONENT);
+        return packed;
+    }
+
+    /**
+     * Returns the given component if it fits in its bits.
+     *
+     * @param value the value of a component
+     * @param name the name of the component, for the message of the exception
+     * @return the value
+     * @throws IllegalArgumentException if the value is out of range
+     */
+    private static int checkComponent(long value, String name) {
+        if (value < 0 || value > MAX_COMPONENT)
+            throw new IllegalArgumentException("The " + name + " must be between 0 and "
+                                               + MAX_COMPONENT + ": " + value);
+        return (int) value;
+    }
+
+}
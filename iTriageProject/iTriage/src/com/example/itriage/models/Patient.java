@@ -5,32 +5,54 @@ import org.json.JSONObject;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A patient in an ER.
+ *
+ * A patient is safe to use from several threads. Every method which reads or
+ * changes its state holds the lock of the patient, so an update such as
+ * recording vital signs, which reads the urgency, records the vital signs
+ * and then recomputes the status, is never seen halfway done.
+ *
+ * Every change to a patient is reported to its PatientChangeListeners as a
+ * PatientChangeEvent, after the lock of the patient is released.
+ *
+ * Each patient has an id which never changes and is saved with the patient.
+ * Patients are equal only if their ids are, so a patient can be kept in a
+ * set or map while its name or other fields are edited.
  */
 public class Patient {
 
+    // The id of the next Patient created
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    // This Patient's id, unique among the patients of this process
+    private final long id;
+
     // This Patient's name
 	private String name;
 
-    // This Patient's date of birth
-	private Calendar birthDate;
+    // This Patient's date of birth, as the number of days since 1970-01-01
+	private int birthEpochDay;
 
     // This Patient's health card number
 	private String healthCardNumber;
 
-    // This Patient's arrival time at the the hospital
-	private Calendar arrivalTime;
+    // This Patient's arrival time at the the hospital, in milliseconds
+	private long arrivalTime;
 
     // This Patient's record of vital signs
-	private PatientRecord<VitalSigns> vitalSigns;
+	private VitalSignsRecord vitalSigns;
 
     // This Patient's record of symptoms
 	private PatientRecord<String> symptoms;
 
-    // This Patient's record of when she has been seen by a doctor
-	private TreeSet<Calendar> timesSeenByDoctor;
+    // The times in milliseconds when this Patient has been seen by a
+    // doctor, from earliest to latest. The array is replaced rather than
+    // changed, so its length can be read without the lock
+	private volatile long[] timesSeenByDoctor;
 
     // This Patient's record of prescriptions
 	private PatientRecord<List<String>> prescriptions;
@@ -38,6 +60,23 @@ public class Patient {
 	// -1 if this Patient's urgency is decreasing; 0 if neutral; 1 if increasing
 	private int status;
 
+    // This Patient's urgency when it was last computed
+    private transient int urgency;
+
+    // The policy urgency was computed with, or null if it must be computed
+    private transient UrgencyPolicy urgencyPolicy;
+
+    // The epoch days from which and until which urgency is correct
+    private transient int urgencyValidFrom;
+    private transient int urgencyValidUntil;
+
+    // Incremented on every change to this Patient
+    private transient long version;
+
+    // Listeners told about every change to this Patient; created on first use
+    // since Gson does not run the constructor
+    private transient CopyOnWriteArrayList<PatientChangeListener> changeListeners;
+
     /**
      * Creates a Patient with the given name, date of birth, health card
      * number and arrival time.
@@ -49,25 +88,54 @@ public class Patient {
      */
     public Patient(String name, Calendar birthDate,
                    String healthCardNumber, Calendar arrivalTime) {
-        // Clear the MILLISECOND field; we only care about SECOND precision
-        birthDate.clear(Calendar.MILLISECOND);
-        arrivalTime.clear(Calendar.MILLISECOND);
-
+        this.id = nextId();
         this.name = name;
         this.healthCardNumber = healthCardNumber;
-        this.birthDate = birthDate;
-        this.arrivalTime = arrivalTime;
+        this.birthEpochDay = EpochDays.of(birthDate);
+        this.arrivalTime = toSeconds(arrivalTime.getTimeInMillis());
 
-        this.vitalSigns = new PatientRecord<VitalSigns>();
+        this.vitalSigns = new VitalSignsRecord();
         this.symptoms = new PatientRecord<String>();
-        this.timesSeenByDoctor = new TreeSet<Calendar>();
+        this.timesSeenByDoctor = new long[0];
         this.prescriptions = new PatientRecord<List<String>>();
         this.status = 0;
     }
 
+    /**
+     * Returns a new id for a patient, greater than every id given out or
+     * reserved so far.
+     *
+     * @return a new patient id
+     */
+    static long nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Makes sure that the given id, read from a file, is never given to a
+     * new patient.
+     *
+     * @param id the id of a loaded patient
+     */
+    static void reserveId(long id) {
+        long next;
+        while ((next = nextId.get()) <= id)
+            if (nextId.compareAndSet(next, id + 1))
+                return;
+    }
+
+    /**
+     * Returns this patient's id, which never changes.
+     *
+     * @return the id of this patient
+     */
+    public long getId() {
+        return id;
+    }
+
     /**
      * Returns true if this patient is equal to the given patient,
-     * otherwise return false.
+     * otherwise return false. Patients are equal if they have the same id.
      *
      * @param o the patient to compare with
      * @return true if this patient is equal to o, otherwise return false
@@ -77,18 +145,7 @@ public class Patient {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
-        Patient p = (Patient) o;
-
-        if (arrivalTime != null ? !arrivalTime.equals(p.arrivalTime) : p.arrivalTime != null)
-            return false;
-        if (birthDate != null ? !birthDate.equals(p.birthDate) : p.birthDate != null)
-            return false;
-        if (healthCardNumber != null ? !healthCardNumber.equals(p.healthCardNumber) : p.healthCardNumber != null)
-            return false;
-        if (name != null ? !name.equals(p.name) : p.name != null)
-            return false;
-
-        return true;
+        return id == ((Patient) o).id;
     }
 
     /**
@@ -99,11 +156,7 @@ public class Patient {
      */
     @Override
     public int hashCode() {
-        int result = name != null ? name.hashCode() : 0;
-        result = 31 * result + (birthDate != null ? birthDate.hashCode() : 0);
-        result = 31 * result + (healthCardNumber != null ? healthCardNumber.hashCode() : 0);
-        result = 31 * result + (arrivalTime != null ? arrivalTime.hashCode() : 0);
-        return result;
+        return (int) (id ^ (id >>> 32));
     }
 
     /**
@@ -121,9 +174,9 @@ public class Patient {
 
         return String.format(format,
                              name,
-                             dateFormat.format(birthDate.getTime()),
+                             dateFormat.format(EpochDays.toCalendar(birthEpochDay).getTime()),
                              healthCardNumber,
-                             timeFormat.format(arrivalTime.getTime()));
+                             timeFormat.format(new Date(arrivalTime)));
     }
 
     /**
@@ -131,7 +184,7 @@ public class Patient {
      *
      * @return The name of this patient
      */
-	public String getName() {
+	public synchronized String getName() {
 		return name;
 	}
 
@@ -141,25 +194,51 @@ public class Patient {
      * @param name The new name of the patient
      */
 	public void setName(String name) {
-		this.name = name;
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = this.name;
+            this.name = name;
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.NAME, oldValue, name, version);
 	}
 
     /**
-     * Returns this patient's birthDate.
+     * Returns this patient's birthDate, as a new calendar at the start of
+     * that day.
      *
-     * @return The date of birth of this patient in dd/mm/yyyy format
+     * @return The date of birth of this patient
      */
-	public Calendar getBirthDate() {
-		return birthDate;
+	public synchronized Calendar getBirthDate() {
+		return EpochDays.toCalendar(birthEpochDay);
 	}
 
+    /**
+     * Returns this patient's birth date as the number of days since
+     * 1970-01-01.
+     *
+     * @return The birth date of this patient as an epoch day
+     */
+    public synchronized int getBirthEpochDay() {
+        return birthEpochDay;
+    }
+
     /**
      * Sets birthDate for this patient.
      *
      * @param birthDate The new birth date of this patient
      */
 	public void setBirthDate(Calendar birthDate) {
-		this.birthDate = birthDate;
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = EpochDays.toCalendar(this.birthEpochDay);
+            this.birthEpochDay = EpochDays.of(birthDate);
+            this.urgencyPolicy = null;
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.BIRTH_DATE, oldValue, birthDate, version);
 	}
 
     /**
@@ -167,30 +246,62 @@ public class Patient {
      *
      * @return The health card number of this patient
      */
-	public String getHealthCardNumber() {
+	public synchronized String getHealthCardNumber() {
 		return healthCardNumber;
 	}
 
     /**
-     * Sets a new heatlhCardNumber for this patient.
+     * Sets a new heatlhCardNumber for this patient. If another patient in the
+     * ER already has the new number, this patient stays under its old number
+     * in the ER; see ER.getKey.
      *
      * @param healthCardNumber The new health card number of the patient
      */
 	public void setHealthCardNumber(String healthCardNumber) {
-		this.healthCardNumber = healthCardNumber;
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = this.healthCardNumber;
+            this.healthCardNumber = healthCardNumber;
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.HEALTH_CARD_NUMBER, oldValue,
+                   healthCardNumber, version);
 	}
 
     /**
-     * Returns this patient's arrival time.
+     * Returns this patient's arrival time, as a new calendar.
      *
      * @return this patient's arrival time
      */
-    public Calendar getArrivalTime() {
+    public synchronized Calendar getArrivalTime() {
+        return toCalendar(arrivalTime);
+    }
+
+    /**
+     * Returns this patient's arrival time in milliseconds since
+     * 1970-01-01T00:00Z.
+     *
+     * @return this patient's arrival time in milliseconds
+     */
+    public synchronized long getArrivalTimeMillis() {
         return arrivalTime;
     }
-    
+
+    /**
+     * Sets a new arrival time for this patient.
+     *
+     * @param arrivalTime The new arrival time of this patient
+     */
     public void setArrivalTime(Calendar arrivalTime) {
-    	this.arrivalTime = arrivalTime;
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = toCalendar(this.arrivalTime);
+            this.arrivalTime = toSeconds(arrivalTime.getTimeInMillis());
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.ARRIVAL_TIME, oldValue, arrivalTime, version);
     }
 
     /**
@@ -198,61 +309,83 @@ public class Patient {
      *
      * @return The record of when this patient was seen by a doctor
      */
-	public List<Calendar> getTimesSeenByDoctor() {
-        return new ArrayList<Calendar>(timesSeenByDoctor);
+	public synchronized List<Calendar> getTimesSeenByDoctor() {
+        List<Calendar> times = new ArrayList<Calendar>(timesSeenByDoctor.length);
+        for (long time : timesSeenByDoctor)
+            times.add(toCalendar(time));
+        return times;
 	}
 
     /**
      * Returns the latest time when this patient was seen by a doctor.
      *
      * @return the latest time when this patient was seen by a doctor
+     * @throws NoSuchElementException if this patient has not been seen by a
+     * doctor
      */
-    public Calendar getLastSeenByDoctor() {
-        return timesSeenByDoctor.last();
+    public synchronized Calendar getLastSeenByDoctor() {
+        if (timesSeenByDoctor.length == 0)
+            throw new NoSuchElementException();
+        return toCalendar(timesSeenByDoctor[timesSeenByDoctor.length - 1]);
     }
 
     /**
      * Returns true if this patient has been seen by a doctor,
-     * otherwise return false.
+     * otherwise return false. This takes O(1) time and no lock.
      *
      * @return true if this patient has been seen by a doctor,
      * otherwise false
      */
     public boolean hasBeenSeenByDoctor() {
-        try {
-            getLastSeenByDoctor();
-        } catch (NoSuchElementException e) {
-            return false;
-        }
-        return true;
+        return timesSeenByDoctor.length > 0;
     }
 
     /**
      * Returns this patient's urgency based on age, temperature,
-     * blood pressure and heart rate.
+     * blood pressure and heart rate, according to the current
+     * UrgencyPolicy.
      *
      * @return The urgency of this patient
      */
-	public Integer getUrgency() {
-        int urgency = 0;
+	public synchronized Integer getUrgency() {
+        return getUrgencyValue();
+	}
 
-        if (this.getAge() < 2) {
-            urgency++;
-        }
-    
-        VitalSigns latestVitalSigns = vitalSigns.getLatestValue();
-        if (latestVitalSigns != null) {
-            if (latestVitalSigns.getTemperature() >= 39.0)
-                urgency++;
-            if (latestVitalSigns.getSystolicBloodPressure() >= 140 ||
-                latestVitalSigns.getDiastolicBloodPressure() >= 90)
-                urgency++;
-            if (latestVitalSigns.getHeartRate() >= 100 ||
-                latestVitalSigns.getHeartRate() <= 50)
-                urgency++;
+    /**
+     * Returns this patient's urgency as a primitive, for sorting. The
+     * urgency is remembered until the vital signs, birth date or urgency
+     * policy change, or until the patient reaches an age the policy cares
+     * about, so most calls only compare the current time.
+     *
+     * @return The urgency of this patient
+     */
+    public synchronized int getUrgencyValue() {
+        int today = Clock.getCurrent().today();
+        UrgencyPolicy policy = UrgencyPolicy.getCurrent();
+        if (policy != urgencyPolicy || today < urgencyValidFrom || today >= urgencyValidUntil) {
+            int age = EpochDays.yearsBetween(birthEpochDay, today);
+            urgency = policy.urgencyOf(age, vitalSigns.getLatestValue());
+            int nextAge = policy.nextAgeChange(age);
+            urgencyValidFrom = today;
+            urgencyValidUntil = nextAge == Integer.MAX_VALUE ? Integer.MAX_VALUE
+                    : EpochDays.birthday(birthEpochDay, nextAge);
+            urgencyPolicy = policy;
         }
         return urgency;
-	}
+    }
+
+    /**
+     * Returns the epoch day on which the urgency returned by
+     * getUrgencyValue() may next change with no change to this patient,
+     * when the patient reaches an age the urgency policy cares about, or
+     * Integer.MAX_VALUE if it never will.
+     *
+     * @return the epoch day until which the urgency is correct
+     */
+    synchronized int getUrgencyValidUntil() {
+        getUrgencyValue();
+        return urgencyValidUntil;
+    }
 
     /**
      * Records a new instance of VitalSigns for this Patient at the current
@@ -262,14 +395,25 @@ public class Patient {
      * @param systolic the new systolicBloodPressure blood pressure of this patient
      * @param diastolic the new diastolicBloodPressure blood pressure of this patient
      * @param heartRate the new heart rate of this patient
+     * @throws IllegalArgumentException if the vital signs are out of the
+     * range of PackedVitalSigns
      */
 	public void recordVitalSigns(double temperature, int systolic,
                                  int diastolic, int heartRate) {
-        int previousUrgency = getUrgency();
-		VitalSigns vitalsigns = new VitalSigns(temperature, systolic,
-                                               diastolic, heartRate);
-        this.vitalSigns.recordValue(vitalsigns);
-        this.status = getUrgency().compareTo(previousUrgency);
+        long packed = PackedVitalSigns.pack(temperature, systolic, diastolic, heartRate);
+		VitalSigns vitalsigns = PackedVitalSigns.unpack(packed);
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = this.vitalSigns.getLatestValue();
+            int previousUrgency = getUrgencyValue();
+            this.vitalSigns.recordPackedValue(packed);
+            this.urgencyPolicy = null;
+            int urgency = getUrgencyValue();
+            this.status = urgency > previousUrgency ? 1 : (urgency < previousUrgency ? -1 : 0);
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.VITAL_SIGNS, oldValue, vitalsigns, version);
 	}
 
     /**
@@ -278,21 +422,24 @@ public class Patient {
      * @param symptoms The new symptoms of this patient
      */
 	public void recordSymptoms(String symptoms) {
-        this.symptoms.recordValue(symptoms);
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = this.symptoms.getLatestValue();
+            this.symptoms.recordValue(symptoms);
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.SYMPTOMS, oldValue, symptoms, version);
 	}
 
     /**
-     * Returns this patient's age based on their birthDate and the current
-     * date.
+     * Returns this patient's age in whole years based on their birthDate
+     * and the current date of Clock.getCurrent().
      *
      * @return The age of this patient
      */
-	public int getAge() {
-        long nowInMillis = Calendar.getInstance().getTimeInMillis();
-        long birthDateInMillis = birthDate.getTimeInMillis();
-        long difference = nowInMillis - birthDateInMillis;
-        long years = difference / 1000 / 60 / 60 / 24 / 365;
-        return (int) years;
+	public synchronized int getAge() {
+        return EpochDays.yearsBetween(birthEpochDay, Clock.getCurrent().today());
 	}
 
     /**
@@ -300,7 +447,7 @@ public class Patient {
      *
      * @return The record of vital signs of this patient
      */
-	public PatientRecord<VitalSigns> getVitalSigns() {
+	public VitalSignsRecord getVitalSigns() {
 		return vitalSigns;
 	}
 
@@ -318,7 +465,7 @@ public class Patient {
      *
      * @return The most recent vital signs of this patient
      */
-    public VitalSigns getLatestVitalSigns() {
+    public synchronized VitalSigns getLatestVitalSigns() {
         return vitalSigns.getLatestValue();
     }
 
@@ -327,7 +474,7 @@ public class Patient {
      *
      * @return The most recent symptoms of this patient
      */
-    public String getLatestSymptoms() {
+    public synchronized String getLatestSymptoms() {
         return symptoms.getLatestValue();
     }
 
@@ -336,8 +483,49 @@ public class Patient {
      * visits.
      */
 	public void addSeenByDoctor() {
-        timesSeenByDoctor.add(Calendar.getInstance());
+        long now = Clock.getCurrent().currentTimeMillis();
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            int count = timesSeenByDoctor.length;
+            oldValue = count == 0 ? null : toCalendar(timesSeenByDoctor[count - 1]);
+
+            // Keep the times in order, even if the clock has gone back
+            int index = Arrays.binarySearch(timesSeenByDoctor, now);
+            if (index < 0)
+                index = -index - 1;
+            long[] times = new long[count + 1];
+            System.arraycopy(timesSeenByDoctor, 0, times, 0, index);
+            times[index] = now;
+            System.arraycopy(timesSeenByDoctor, index, times, index + 1, count - index);
+            timesSeenByDoctor = times;
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.SEEN_BY_DOCTOR, oldValue, toCalendar(now), version);
 	}
+
+    /**
+     * Returns a new calendar set to the given time.
+     *
+     * @param millis a time in milliseconds
+     * @return a calendar set to the time
+     */
+    private static Calendar toCalendar(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    /**
+     * Returns the given time without its milliseconds; only seconds are
+     * kept for arrival times.
+     *
+     * @param millis a time in milliseconds
+     * @return the time rounded down to the second
+     */
+    private static long toSeconds(long millis) {
+        return millis - ((millis % 1000) + 1000) % 1000;
+    }
 	
 	/**
 	 * Adds a new prescription to this Patient at the current date and time.
@@ -349,7 +537,14 @@ public class Patient {
         List<String> prescription = new ArrayList<String>(2);
         prescription.add(name);
         prescription.add(instructions);
-		this.prescriptions.recordValue(prescription);
+        Object oldValue;
+        long version;
+        synchronized (this) {
+            oldValue = this.prescriptions.getLatestValue();
+            this.prescriptions.recordValue(prescription);
+            version = ++this.version;
+        }
+        fireChange(PatientChangeEvent.Field.PRESCRIPTIONS, oldValue, prescription, version);
 	}
 	
 	/**
@@ -368,7 +563,7 @@ public class Patient {
      * @return a two-element list with the first element as the prescription
      * name, and the second as the instructions
      */
-	public List<String> getLatestPrescription()
+	public synchronized List<String> getLatestPrescription()
 	{
 		return prescriptions.getLatestValue();
 	}
@@ -380,8 +575,60 @@ public class Patient {
      * @return -1 if this Patient's urgency is increasing; 0 if it is the same;
      * 1 if it is increasing
      */
-	public int getStatus() {
+	public synchronized int getStatus() {
         return status;
     }
 
+    /**
+     * Adds a listener which is told about every change to this patient. A
+     * listener which was already added is not added again.
+     *
+     * @param listener the listener to add
+     */
+    public void addChangeListener(PatientChangeListener listener) {
+        changeListeners().addIfAbsent(listener);
+    }
+
+    /**
+     * Removes a listener added with addChangeListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeChangeListener(PatientChangeListener listener) {
+        changeListeners().remove(listener);
+    }
+
+    /**
+     * Returns the list of change listeners of this patient, creating it if
+     * this patient was loaded by Gson.
+     *
+     * @return the list of change listeners of this patient
+     */
+    private synchronized CopyOnWriteArrayList<PatientChangeListener> changeListeners() {
+        if (changeListeners == null)
+            changeListeners = new CopyOnWriteArrayList<PatientChangeListener>();
+        return changeListeners;
+    }
+
+    /**
+     * Tells every change listener about a change to this patient. This must
+     * be called without holding the lock of this patient, so that listeners
+     * may take their own locks.
+     *
+     * @param field the field which changed
+     * @param oldValue the value of the field before the change
+     * @param newValue the value of the field after the change
+     * @param version the version of this patient after the change
+     */
+    private void fireChange(PatientChangeEvent.Field field, Object oldValue,
+                            Object newValue, long version) {
+        List<PatientChangeListener> listeners = changeListeners();
+        if (listeners.isEmpty())
+            return;
+        PatientChangeEvent event;
+        event = new PatientChangeEvent(this, field, oldValue, newValue, version);
+        for (PatientChangeListener listener : listeners)
+            listener.onPatientChanged(event);
+    }
+
 }
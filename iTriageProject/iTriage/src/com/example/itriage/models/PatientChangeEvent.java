@@ -0,0 +1,102 @@
+package com.example.itriage.models;
+
+/**
+ * A change to one field of a patient.
+ */
+public class PatientChangeEvent {
+
+    /**
+     * The fields of a patient which report changes.
+     */
+    public enum Field {
+        NAME,
+        BIRTH_DATE,
+        HEALTH_CARD_NUMBER,
+        ARRIVAL_TIME,
+        VITAL_SIGNS,
+        SYMPTOMS,
+        PRESCRIPTIONS,
+        SEEN_BY_DOCTOR
+    }
+
+    // The patient which changed
+    private final Patient patient;
+
+    // The field which changed
+    private final Field field;
+
+    // The value of the field before and after the change
+    private final Object oldValue;
+    private final Object newValue;
+
+    // The version of the patient after the change
+    private final long version;
+
+    /**
+     * Constructs a change event.
+     *
+     * @param patient the patient which changed
+     * @param field the field which changed
+     * @param oldValue the value of the field before the change
+     * @param newValue the value of the field after the change
+     * @param version the version of the patient after the change
+     */
+    PatientChangeEvent(Patient patient, Field field, Object oldValue,
+                       Object newValue, long version) {
+        this.patient = patient;
+        this.field = field;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.version = version;
+    }
+
+    /**
+     * Returns the patient which changed.
+     *
+     * @return the patient which changed
+     */
+    public Patient getPatient() {
+        return patient;
+    }
+
+    /**
+     * Returns the field which changed.
+     *
+     * @return the field which changed
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Returns the value of the field before the change. For a record such as
+     * vital signs, this is the latest value before the change, or null.
+     *
+     * @return the value of the field before the change
+     */
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Returns the value of the field after the change. For a record such as
+     * vital signs, this is the value which was recorded.
+     *
+     * @return the value of the field after the change
+     */
+    public Object getNewValue() {
+        return newValue;
+    }
+
+    /**
+     * Returns the version of the patient after the change. Each change to a
+     * patient increments its version, so a listener can tell which of two
+     * events for the same patient happened last.
+     *
+     * @return the version of the patient after the change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.example.itriage.models;
+
+/**
+ * A listener which is told whenever a field of a patient changes.
+ */
+public interface PatientChangeListener {
+
+    /**
+     * Called after a field of a patient has changed. This is called on the
+     * thread which made the change, after the patient's lock is released.
+     *
+     * @param event the change which was made
+     */
+    void onPatientChanged(PatientChangeEvent event);
+
+}
@@ -0,0 +1,140 @@
+package com.example.itriage.models;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a Patient from JSON, upgrading the fields of files written by older
+ * versions of iTriage to the current ones before the patient is built.
+ */
+class PatientDeserializer implements JsonDeserializer<Patient> {
+
+    // Reads the upgraded patient; must not have this deserializer registered
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(VitalSignsRecord.class, new VitalSignsRecord.Adapter())
+            .create();
+
+    @Override
+    public Patient deserialize(JsonElement json, Type type,
+                               JsonDeserializationContext context)
+            throws JsonParseException {
+        if (!json.isJsonObject())
+            return gson.fromJson(json, Patient.class);
+        JsonObject object = json.getAsJsonObject();
+
+        // The birth date used to be stored as a Calendar
+        JsonElement birthDate = object.remove("birthDate");
+        if (birthDate != null && birthDate.isJsonObject() && !object.has("birthEpochDay")) {
+            JsonObject calendar = birthDate.getAsJsonObject();
+            object.addProperty("birthEpochDay", EpochDays.of(
+                    calendar.get("year").getAsInt(),
+                    calendar.get("month").getAsInt() + 1,
+                    calendar.get("dayOfMonth").getAsInt()));
+        }
+
+        // Times used to be stored as Calendars, and are now milliseconds, or
+        // RecordTimestamps in records
+        JsonElement arrivalTime = object.get("arrivalTime");
+        if (arrivalTime != null && arrivalTime.isJsonObject())
+            object.addProperty("arrivalTime", toMillis(arrivalTime.getAsJsonObject()));
+        JsonElement timesSeenByDoctor = object.get("timesSeenByDoctor");
+        if (timesSeenByDoctor != null && timesSeenByDoctor.isJsonArray()) {
+            JsonArray times = new JsonArray();
+            for (JsonElement time : timesSeenByDoctor.getAsJsonArray())
+                times.add(time.isJsonObject()
+                        ? new JsonPrimitive(toMillis(time.getAsJsonObject())) : time);
+            object.add("timesSeenByDoctor", times);
+        }
+        // Patients used to have no id
+        JsonElement id = object.get("id");
+        if (id != null && id.isJsonPrimitive())
+            Patient.reserveId(id.getAsLong());
+        else
+            object.addProperty("id", Patient.nextId());
+
+        for (String record : new String[] {"vitalSigns", "symptoms", "prescriptions"}) {
+            JsonElement element = object.get(record);
+            if (element != null && element.isJsonObject())
+                upgradeRecord(element.getAsJsonObject());
+        }
+
+        return gson.fromJson(object, Patient.class);
+    }
+
+    /**
+     * Replaces the values of the given PatientRecord, which used to be keyed
+     * by Calendars written as an array of [key, value] pairs, or later by
+     * times in milliseconds, with entries keyed by RecordTimestamps.
+     *
+     * @param record a PatientRecord in JSON
+     */
+    private static void upgradeRecord(JsonObject record) {
+        JsonElement values = record.remove("values");
+        if (values == null || record.has("entries"))
+            return;
+
+        // The values by time, in the order they were recorded within a time
+        TreeMap<Long, List<JsonElement>> byTime = new TreeMap<Long, List<JsonElement>>();
+        if (values.isJsonArray()) {
+            for (JsonElement pair : values.getAsJsonArray()) {
+                JsonArray entry = pair.getAsJsonArray();
+                JsonElement key = entry.get(0);
+                add(byTime, key.isJsonObject() ? toMillis(key.getAsJsonObject()) : key.getAsLong(),
+                    entry.get(1));
+            }
+        } else if (values.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : values.getAsJsonObject().entrySet())
+                add(byTime, Long.parseLong(entry.getKey()), entry.getValue());
+        }
+
+        JsonObject entries = new JsonObject();
+        long last = Long.MIN_VALUE;
+        for (Map.Entry<Long, List<JsonElement>> time : byTime.entrySet()) {
+            for (JsonElement value : time.getValue()) {
+                last = RecordTimestamp.next(last, time.getKey());
+                entries.add(String.valueOf(last), value);
+            }
+        }
+        record.add("entries", entries);
+    }
+
+    private static void add(TreeMap<Long, List<JsonElement>> byTime, long time,
+                            JsonElement value) {
+        List<JsonElement> values = byTime.get(time);
+        if (values == null) {
+            values = new ArrayList<JsonElement>(1);
+            byTime.put(time, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Returns the time in milliseconds of a Calendar written by Gson.
+     *
+     * @param calendar a Calendar in JSON
+     * @return the time of the calendar in milliseconds
+     */
+    private static long toMillis(JsonObject calendar) {
+        return new GregorianCalendar(calendar.get("year").getAsInt(),
+                                     calendar.get("month").getAsInt(),
+                                     calendar.get("dayOfMonth").getAsInt(),
+                                     calendar.get("hourOfDay").getAsInt(),
+                                     calendar.get("minute").getAsInt(),
+                                     calendar.get("second").getAsInt()).getTimeInMillis();
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.example.itriage.models;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A secondary index which keeps patients sorted by a key derived from
+ * their fields.
+ *
+ * The key of each patient is computed when the patient is indexed and
+ * remembered, so a patient whose fields have since changed can still be
+ * found and moved to its new position in O(log n).
+ *
+ * An index is safe to use from several threads. Readers share a read lock
+ * and writers take the write lock, so readers never see a half-moved entry.
+ *
+ * @param <K> the type of the sort key
+ */
+abstract class PatientIndex<K extends Comparable<K>> {
+
+    // Indexed patients, sorted by their keys
+    private TreeMap<K, Patient> entries;
+
+    // The key each patient was last indexed under
+    private Map<Patient, K> keys;
+
+    // Guards entries and keys
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs an empty PatientIndex.
+     */
+    PatientIndex() {
+        this.entries = new TreeMap<K, Patient>();
+        this.keys = new HashMap<Patient, K>();
+    }
+
+    /**
+     * Returns the sort key of the given patient from its current fields.
+     *
+     * @param patient a patient
+     * @return the sort key of the patient
+     */
+    abstract K keyOf(Patient patient);
+
+    /**
+     * Returns true if a change to the given field of a patient may change
+     * whether or where the patient is in this index. By default every field
+     * may.
+     *
+     * @param field a field of a patient
+     * @return true if a change to the field may move the patient
+     */
+    boolean dependsOn(PatientChangeEvent.Field field) {
+        return true;
+    }
+
+    /**
+     * Returns true if the given patient belongs in this index. By default
+     * every patient does.
+     *
+     * @param patient a patient
+     * @return true if the patient belongs in this index
+     */
+    boolean accepts(Patient patient) {
+        return true;
+    }
+
+    /**
+     * Called while the write lock is held, when the given patient is put in
+     * this index under the given key. Does nothing by default.
+     *
+     * @param key the key of the patient
+     * @param patient the patient added
+     */
+    void added(K key, Patient patient) {
+    }
+
+    /**
+     * Called while the write lock is held, when the entry with the given key
+     * is taken out of this index. Does nothing by default.
+     *
+     * @param key the key of the entry removed
+     */
+    void removed(K key) {
+    }
+
+    /**
+     * Adds the given patient to this index, or moves it to its new position
+     * if it was already indexed.
+     *
+     * @param patient the patient to index
+     */
+    void update(Patient patient) {
+        // Compute the new key before locking, since it reads the patient
+        K key = accepts(patient) ? keyOf(patient) : null;
+        lock.writeLock().lock();
+        try {
+            K oldKey = keys.remove(patient);
+            if (oldKey != null) {
+                entries.remove(oldKey);
+                removed(oldKey);
+            }
+            if (key != null) {
+                entries.put(key, patient);
+                keys.put(patient, key);
+                added(key, patient);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the given patient from this index if it is indexed.
+     *
+     * @param patient the patient to remove
+     */
+    void remove(Patient patient) {
+        lock.writeLock().lock();
+        try {
+            K key = keys.remove(patient);
+            if (key != null) {
+                entries.remove(key);
+                removed(key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every patient from this index.
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            for (K key : entries.keySet())
+                removed(key);
+            entries.clear();
+            keys.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of patients in this index.
+     *
+     * @return the number of patients in this index
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns at most limit entries of this index which follow fromKey, in
+     * index order or in reverse index order. Each entry holds the key a
+     * patient is indexed under and the patient, so results from several
+     * indexes can be merged in order.
+     *
+     * @param fromKey the key to start from, or null to start at the front
+     * @param inclusive true to include an entry with key fromKey
+     * @param limit the maximum number of entries to return
+     * @param descending true to read this index in reverse order
+     * @return the entries which follow fromKey
+     */
+    List<Map.Entry<K, Patient>> entries(K fromKey, boolean inclusive,
+                                        int limit, boolean descending) {
+        lock.readLock().lock();
+        try {
+            NavigableMap<K, Patient> view = descending ? entries.descendingMap() : entries;
+            if (fromKey != null)
+                view = view.tailMap(fromKey, inclusive);
+            return copy(view, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the entries of this index with keys from fromKey (inclusive) to
+     * toKey (exclusive), in index order or in reverse index order.
+     *
+     * @param fromKey the low end of the range, inclusive
+     * @param toKey the high end of the range, exclusive
+     * @param descending true to return the range in reverse index order
+     * @return the entries with keys in the given range
+     */
+    List<Map.Entry<K, Patient>> range(K fromKey, K toKey, boolean descending) {
+        if (fromKey.compareTo(toKey) >= 0)
+            return new ArrayList<Map.Entry<K, Patient>>();
+        lock.readLock().lock();
+        try {
+            NavigableMap<K, Patient> slice = entries.subMap(fromKey, true,
+                                                            toKey, false);
+            if (descending)
+                slice = slice.descendingMap();
+            return copy(slice, Integer.MAX_VALUE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies at most limit entries from the front of the given view. The
+     * entries are copied since TreeMap reuses its own entries on removal.
+     *
+     * @param view a view of entries
+     * @param limit the maximum number of entries to copy
+     * @return a list of copies of the entries
+     */
+    private List<Map.Entry<K, Patient>> copy(NavigableMap<K, Patient> view,
+                                             int limit) {
+        List<Map.Entry<K, Patient>> copies;
+        copies = new ArrayList<Map.Entry<K, Patient>>(Math.min(limit, entries.size()));
+        for (Map.Entry<K, Patient> entry : view.entrySet()) {
+            if (copies.size() >= limit)
+                break;
+            copies.add(new AbstractMap.SimpleImmutableEntry<K, Patient>(entry));
+        }
+        return copies;
+    }
+
+}
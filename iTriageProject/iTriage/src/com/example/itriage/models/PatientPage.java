@@ -0,0 +1,93 @@
+package com.example.itriage.models;
+
+import java.util.List;
+
+/**
+ * One page of the results of an ordered ER query, along with a cursor to
+ * resume the query after the last patient on this page.
+ */
+public class PatientPage {
+
+    /**
+     * An opaque position in an ordered ER query. A cursor remembers the sort
+     * key of the last patient returned rather than an offset, so patients
+     * added or removed elsewhere in the order do not shift the next page.
+     */
+    public static final class Cursor {
+
+        // The ordering this cursor belongs to
+        private final Object index;
+
+        // The key of the last patient returned
+        private final Object key;
+
+        // True if the ordering is being read in reverse order
+        private final boolean descending;
+
+        Cursor(Object index, Object key, boolean descending) {
+            this.index = index;
+            this.key = key;
+            this.descending = descending;
+        }
+
+        /**
+         * Returns the key of the last patient returned, checking that this
+         * cursor was created by the same ordering read in the same direction.
+         *
+         * @param index the ordering being read
+         * @param descending true if the ordering is being read in reverse order
+         * @return the key of the last patient returned
+         */
+        Object keyFor(Object index, boolean descending) {
+            if (this.index != index || this.descending != descending)
+                throw new IllegalArgumentException("Cursor belongs to a different query.");
+            return key;
+        }
+    }
+
+    // The patients on this page
+    private final List<Patient> patients;
+
+    // The cursor for the next page, or null if this is the last page
+    private final Cursor nextCursor;
+
+    /**
+     * Constructs a page of patients.
+     *
+     * @param patients the patients on this page
+     * @param nextCursor the cursor for the next page, or null if this is the
+     * last page
+     */
+    PatientPage(List<Patient> patients, Cursor nextCursor) {
+        this.patients = patients;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the patients on this page.
+     *
+     * @return the patients on this page
+     */
+    public List<Patient> getPatients() {
+        return patients;
+    }
+
+    /**
+     * Returns the cursor for the next page, or null if this is the last page.
+     *
+     * @return the cursor for the next page, or null if this is the last page
+     */
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Returns true if there are more patients after this page.
+     *
+     * @return true if there are more patients after this page
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+}
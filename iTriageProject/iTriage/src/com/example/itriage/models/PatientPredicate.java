@@ -0,0 +1,17 @@
+package com.example.itriage.models;
+
+/**
+ * A condition on a patient, used to filter the results of an ER query.
+ * Conditions can be combined with the methods of PatientPredicates.
+ */
+public interface PatientPredicate {
+
+    /**
+     * Returns true if the given patient meets this condition.
+     *
+     * @param patient the patient to test
+     * @return true if the patient meets this condition
+     */
+    boolean matches(Patient patient);
+
+}
@@ -0,0 +1,144 @@
+package com.example.itriage.models;
+
+import java.util.Calendar;
+
+/**
+ * Common conditions on patients, and ways of combining them.
+ */
+public final class PatientPredicates {
+
+    private PatientPredicates() {
+    }
+
+    /**
+     * Returns a condition met by patients who have not been seen by a doctor.
+     *
+     * @return a condition met by waiting patients
+     */
+    public static PatientPredicate waiting() {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                return !patient.hasBeenSeenByDoctor();
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met by patients with at least the given urgency.
+     *
+     * @param urgency the lowest urgency to accept
+     * @return a condition met by patients with at least the given urgency
+     */
+    public static PatientPredicate urgencyAtLeast(final int urgency) {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                return patient.getUrgencyValue() >= urgency;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met by patients younger than the given age.
+     *
+     * @param age the age in years which patients must be under
+     * @return a condition met by patients younger than the given age
+     */
+    public static PatientPredicate ageUnder(final int age) {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                return patient.getAge() < age;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met by patients who arrived from the given start
+     * time (inclusive) to the given end time (exclusive).
+     *
+     * @param from the earliest arrival time to accept
+     * @param to the arrival time at which to stop, exclusive
+     * @return a condition met by patients who arrived in the given range
+     */
+    public static PatientPredicate arrivedBetween(Calendar from, Calendar to) {
+        final long fromMillis = from.getTimeInMillis();
+        final long toMillis = to.getTimeInMillis();
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                long arrivalTime = patient.getArrivalTimeMillis();
+                return arrivalTime >= fromMillis && arrivalTime < toMillis;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met by patients whose name starts with the given
+     * prefix.
+     *
+     * @param prefix the start of the name
+     * @return a condition met by patients whose name starts with the prefix
+     */
+    public static PatientPredicate nameStartsWith(final String prefix) {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                return patient.getName().startsWith(prefix);
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met when every one of the given conditions is met.
+     *
+     * @param predicates the conditions to combine
+     * @return a condition met when all of the given conditions are met
+     */
+    public static PatientPredicate and(final PatientPredicate... predicates) {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                for (PatientPredicate predicate : predicates)
+                    if (!predicate.matches(patient))
+                        return false;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met when any one of the given conditions is met.
+     *
+     * @param predicates the conditions to combine
+     * @return a condition met when any of the given conditions is met
+     */
+    public static PatientPredicate or(final PatientPredicate... predicates) {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                for (PatientPredicate predicate : predicates)
+                    if (predicate.matches(patient))
+                        return true;
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a condition met when the given condition is not met.
+     *
+     * @param predicate the condition to negate
+     * @return a condition met when the given condition is not met
+     */
+    public static PatientPredicate not(final PatientPredicate predicate) {
+        return new PatientPredicate() {
+            @Override
+            public boolean matches(Patient patient) {
+                return !predicate.matches(patient);
+            }
+        };
+    }
+
+}
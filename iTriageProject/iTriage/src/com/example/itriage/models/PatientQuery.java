@@ -0,0 +1,212 @@
+package com.example.itriage.models;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * A query for patients in an ER, made of conditions which every result must
+ * meet, an order and a limit. For example, the 20 most recent arrivals among
+ * waiting patients under 2 with an urgency of at least 2 are found by
+ *
+ * <pre>
+ * new PatientQuery()
+ *         .waiting()
+ *         .urgencyAtLeast(2)
+ *         .where(PatientPredicates.ageUnder(2))
+ *         .arrivedBetween(anHourAgo, now)
+ *         .sortBy(PatientQuery.Sort.LATEST_ARRIVAL_FIRST)
+ *         .limit(20);
+ * </pre>
+ *
+ * The conditions set by waiting(), urgencyAtLeast(), arrivedBetween() and
+ * nameStartsWith() can be answered from the orderings the ER keeps, so the
+ * ER reads only part of an ordering instead of every patient. Conditions
+ * given to where() are checked against each patient read.
+ */
+public class PatientQuery {
+
+    /**
+     * The orders in which the results of a query can be sorted.
+     */
+    public enum Sort {
+        /** The order patients happen to be found in */
+        NONE,
+        /** Alphabetical order by name */
+        NAME,
+        /** Descending order by urgency, then latest arrival first */
+        URGENCY,
+        /** Ascending order by arrival time */
+        EARLIEST_ARRIVAL_FIRST,
+        /** Descending order by arrival time */
+        LATEST_ARRIVAL_FIRST
+    }
+
+    // True if only patients who have not been seen by a doctor are wanted
+    private boolean waitingOnly;
+
+    // The lowest urgency wanted, or null for any urgency
+    private Integer minUrgency;
+
+    // The range of arrival times wanted in milliseconds, or null for any
+    private Long arrivedFrom;
+    private Long arrivedTo;
+
+    // The start of the names wanted, or null for any name
+    private String namePrefix;
+
+    // Every condition a result must meet, including the ones above
+    private final List<PatientPredicate> predicates;
+
+    // The order of the results
+    private Sort sort;
+
+    // The maximum number of results
+    private int limit;
+
+    /**
+     * Constructs a query for every patient, in no particular order.
+     */
+    public PatientQuery() {
+        this.predicates = new ArrayList<PatientPredicate>();
+        this.sort = Sort.NONE;
+        this.limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Restricts this query to patients who have not been seen by a doctor.
+     *
+     * @return this query
+     */
+    public PatientQuery waiting() {
+        if (!waitingOnly) {
+            waitingOnly = true;
+            predicates.add(PatientPredicates.waiting());
+        }
+        return this;
+    }
+
+    /**
+     * Restricts this query to patients with at least the given urgency.
+     *
+     * @param urgency the lowest urgency to accept
+     * @return this query
+     */
+    public PatientQuery urgencyAtLeast(int urgency) {
+        if (minUrgency == null || urgency > minUrgency)
+            minUrgency = urgency;
+        predicates.add(PatientPredicates.urgencyAtLeast(urgency));
+        return this;
+    }
+
+    /**
+     * Restricts this query to patients who arrived from the given start time
+     * (inclusive) to the given end time (exclusive).
+     *
+     * @param from the earliest arrival time to accept
+     * @param to the arrival time at which to stop, exclusive
+     * @return this query
+     */
+    public PatientQuery arrivedBetween(Calendar from, Calendar to) {
+        long fromMillis = from.getTimeInMillis();
+        long toMillis = to.getTimeInMillis();
+        if (arrivedFrom == null || fromMillis > arrivedFrom)
+            arrivedFrom = fromMillis;
+        if (arrivedTo == null || toMillis < arrivedTo)
+            arrivedTo = toMillis;
+        predicates.add(PatientPredicates.arrivedBetween(from, to));
+        return this;
+    }
+
+    /**
+     * Restricts this query to patients whose name starts with the given
+     * prefix.
+     *
+     * @param prefix the start of the name
+     * @return this query
+     */
+    public PatientQuery nameStartsWith(String prefix) {
+        // Keep the longest prefix, which is the most selective
+        if (namePrefix == null || prefix.length() > namePrefix.length())
+            namePrefix = prefix;
+        predicates.add(PatientPredicates.nameStartsWith(prefix));
+        return this;
+    }
+
+    /**
+     * Restricts this query to patients who meet the given condition.
+     *
+     * @param predicate the condition results must meet
+     * @return this query
+     */
+    public PatientQuery where(PatientPredicate predicate) {
+        predicates.add(predicate);
+        return this;
+    }
+
+    /**
+     * Sets the order of the results of this query.
+     *
+     * @param sort the order of the results
+     * @return this query
+     */
+    public PatientQuery sortBy(Sort sort) {
+        this.sort = sort;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of results of this query.
+     *
+     * @param limit the maximum number of results, at least 0
+     * @return this query
+     */
+    public PatientQuery limit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("Query limit must not be negative.");
+        this.limit = limit;
+        return this;
+    }
+
+    boolean isWaitingOnly() {
+        return waitingOnly;
+    }
+
+    Integer getMinUrgency() {
+        return minUrgency;
+    }
+
+    Long getArrivedFrom() {
+        return arrivedFrom;
+    }
+
+    Long getArrivedTo() {
+        return arrivedTo;
+    }
+
+    String getNamePrefix() {
+        return namePrefix;
+    }
+
+    Sort getSort() {
+        return sort;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns true if the given patient meets every condition of this query.
+     *
+     * @param patient the patient to test
+     * @return true if the patient meets every condition of this query
+     */
+    boolean matches(Patient patient) {
+        for (PatientPredicate predicate : predicates)
+            if (!predicate.matches(patient))
+                return false;
+        return true;
+    }
+
+}
@@ -14,25 +14,36 @@ import java.util.*;
 
 /**
  * A generic container which holds the current and past values of
- * a patient record.
+ * a patient record. A PatientRecord is safe to use from several threads.
  */
 public class PatientRecord<T> {
 
     /**
      * A map of current and past values of this patient record, with
-     * Calendar (Date/time recorded) -> T (value)
+     * Long (RecordTimestamp of when it was recorded) -> T (value)
      *
      * Since this is a TreeMap,
      * the map is sorted by its keys, making it easy to retrieve the
      * first (earliest) and last (latest) values.
      */
-    private TreeMap<Calendar, T> values;
+    private TreeMap<Long, T> entries;
 
     /**
      * Constructs a new PatientRecord
      */
     public PatientRecord() {
-        values = new TreeMap<Calendar, T>();
+        entries = new TreeMap<Long, T>();
+    }
+
+    /**
+     * Constructs a new PatientRecord which keeps its values in the given map.
+     * A subclass which keeps its values some other way passes null and
+     * overrides every method which reads or records values.
+     *
+     * @param entries the map of values, or null
+     */
+    PatientRecord(TreeMap<Long, T> entries) {
+        this.entries = entries;
     }
 
     /**
@@ -45,31 +56,81 @@ public class PatientRecord<T> {
     }
 
     /**
-     * Records a new data point to the PatientRecord
+     * Records a new data point to the PatientRecord. The value gets its own
+     * RecordTimestamp even if another value was recorded in the same
+     * millisecond, so no value is ever lost.
      *
      * @param value the value of type T that will be recorded to the current Record
      */
-    public void recordValue(T value) {
-        values.put(Calendar.getInstance(), value);
+    public synchronized void recordValue(T value) {
+        long last = entries.isEmpty() ? Long.MIN_VALUE : entries.lastKey();
+        entries.put(RecordTimestamp.next(last, Clock.getCurrent().currentTimeMillis()), value);
     }
 
     /**
-     * Returns the entire PatientHistory
+     * Returns a copy of the entire PatientHistory, keyed by the
+     * RecordTimestamp of each value. This is a copy so that it can be read
+     * while new values are being recorded on another thread.
      *
      * @return returns the entire PatientHistory of this patient
      */
-    public TreeMap<Calendar, T> getHistory() {
-        return values;
+    public synchronized TreeMap<Long, T> getHistory() {
+        return new TreeMap<Long, T>(entries);
+    }
+
+    /**
+     * Returns a read-only view of the values recorded at or after from and
+     * before to, keyed by the RecordTimestamp of each value. The view is not
+     * a copy, so it sees values recorded later within its range; hold the
+     * lock of this record while reading it if values may be recorded on
+     * another thread.
+     *
+     * @param from the earliest time to include, in milliseconds
+     * @param to the time at which to stop, exclusive, in milliseconds
+     * @return a view of the values recorded in the range
+     * @throws IllegalArgumentException if from is after to
+     */
+    public synchronized SortedMap<Long, T> getHistoryBetween(long from, long to) {
+        return Collections.unmodifiableSortedMap(
+                entries.subMap(RecordTimestamp.lowest(from), RecordTimestamp.lowest(to)));
+    }
+
+    /**
+     * Returns a read-only view of the values recorded at or after the given
+     * time. See getHistoryBetween.
+     *
+     * @param from the earliest time to include, in milliseconds
+     * @return a view of the values recorded since the time
+     */
+    public synchronized SortedMap<Long, T> getHistorySince(long from) {
+        return Collections.unmodifiableSortedMap(entries.tailMap(RecordTimestamp.lowest(from)));
+    }
+
+    /**
+     * Returns a read-only view of the latest count values, which goes on to
+     * include any values recorded after them. See getHistoryBetween.
+     *
+     * @param count the number of values to include
+     * @return a view of the latest values
+     */
+    public synchronized SortedMap<Long, T> getLatestHistory(int count) {
+        if (count <= 0)
+            return Collections.unmodifiableSortedMap(entries.tailMap(Long.MAX_VALUE, false));
+        Long from = Long.MIN_VALUE;
+        Iterator<Long> timestamps = entries.descendingKeySet().iterator();
+        for (int i = 0; i < count && timestamps.hasNext(); i++)
+            from = timestamps.next();
+        return Collections.unmodifiableSortedMap(entries.tailMap(from));
     }
 
     /**
      * Returns an individual point from the PatientHistory
      *
-     * @param date the date that is being used to search for a certain value.
-     * @return returns the desired value searched by the Calendar object
+     * @param timestamp the RecordTimestamp of the value, a key of getHistory
+     * @return returns the value recorded with the given timestamp, or null
      */
-    public T getValue(Calendar date) {
-        return values.get(date);
+    public synchronized T getValue(long timestamp) {
+        return entries.get(timestamp);
     }
 
     /**
@@ -77,8 +138,8 @@ public class PatientRecord<T> {
      *
      * @return returns the latest value recorded in the PatientRecord.
      */
-    public T getLatestValue() {
-        return !values.isEmpty() ? values.lastEntry().getValue() : null;
+    public synchronized T getLatestValue() {
+        return !entries.isEmpty() ? entries.lastEntry().getValue() : null;
     }
 
 }
@@ -0,0 +1,85 @@
+package com.example.itriage.models;
+
+/**
+ * A description of how an ER answers a PatientQuery: which ordering it
+ * reads, whether it reads only part of that ordering, and whether the
+ * results still have to be sorted afterwards.
+ */
+public class QueryPlan {
+
+    /**
+     * The ways an ER can find the patients for a query.
+     */
+    public enum Access {
+        /** Read the waiting patients in order by urgency */
+        URGENCY_INDEX,
+        /** Read the waiting patients in order by arrival time */
+        ARRIVAL_TIME_INDEX,
+        /** Read all patients in order by name */
+        NAME_INDEX,
+        /** Read every patient, or every waiting patient for a query of waiting patients */
+        FULL_SCAN
+    }
+
+    // The way the patients are found
+    private final Access access;
+
+    // True if only a range of the ordering is read
+    private final boolean bounded;
+
+    // True if the results must be sorted after they are found
+    private final boolean needsSort;
+
+    QueryPlan(Access access, boolean bounded, boolean needsSort) {
+        this.access = access;
+        this.bounded = bounded;
+        this.needsSort = needsSort;
+    }
+
+    /**
+     * Returns the way the patients are found.
+     *
+     * @return the way the patients are found
+     */
+    public Access getAccess() {
+        return access;
+    }
+
+    /**
+     * Returns true if every patient is read to answer the query.
+     *
+     * @return true if every patient is read
+     */
+    public boolean isFullScan() {
+        return access == Access.FULL_SCAN;
+    }
+
+    /**
+     * Returns true if only a range of an ordering is read, rather than the
+     * whole ordering.
+     *
+     * @return true if only a range of an ordering is read
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * Returns true if the results must be sorted after they are found,
+     * because they are not read in the order the query asks for. Such a
+     * query must find every match before it can apply its limit.
+     *
+     * @return true if the results must be sorted after they are found
+     */
+    public boolean needsSort() {
+        return needsSort;
+    }
+
+    @Override
+    public String toString() {
+        String description = access == Access.FULL_SCAN ? "full scan"
+                : (bounded ? "range scan of " : "scan of ") + access;
+        return needsSort ? description + ", then sort" : description;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.example.itriage.models;
+
+/**
+ * The keys of the values of a PatientRecord: a time in milliseconds
+ * followed by a sequence number in the lowest SEQUENCE_BITS bits, so that
+ * values recorded in the same millisecond each get their own key.
+ *
+ * Timestamps only ever increase within a record. A value recorded in the
+ * same millisecond as the last one, or while the clock has gone back, gets
+ * the next sequence number after the last one; if the sequence numbers of
+ * a millisecond run out, the timestamp moves on into the next millisecond.
+ * No value is ever recorded over another, and a timestamp is never more
+ * than a moment ahead of the clock unless values arrive faster than
+ * 2^SEQUENCE_BITS per millisecond.
+ */
+public final class RecordTimestamp {
+
+    // The number of bits of a timestamp taken by the sequence number
+    public static final int SEQUENCE_BITS = 16;
+
+    private RecordTimestamp() {
+    }
+
+    /**
+     * Returns the smallest timestamp in the given millisecond. Every value
+     * recorded at or after the millisecond has a timestamp at least this.
+     * Times too far from 1970 for a timestamp give Long.MIN_VALUE or
+     * Long.MAX_VALUE, so that they can bound a range.
+     *
+     * @param millis a time in milliseconds
+     * @return the first timestamp of the millisecond
+     */
+    public static long lowest(long millis) {
+        if (millis > Long.MAX_VALUE >> SEQUENCE_BITS)
+            return Long.MAX_VALUE;
+        if (millis < Long.MIN_VALUE >> SEQUENCE_BITS)
+            return Long.MIN_VALUE;
+        return millis << SEQUENCE_BITS;
+    }
+
+    /**
+     * Returns the time in milliseconds of the given timestamp.
+     *
+     * @param timestamp a timestamp
+     * @return the time of the timestamp in milliseconds
+     */
+    public static long millisOf(long timestamp) {
+        return timestamp >> SEQUENCE_BITS;
+    }
+
+    /**
+     * Returns the sequence number of the given timestamp within its
+     * millisecond.
+     *
+     * @param timestamp a timestamp
+     * @return the sequence number of the timestamp
+     */
+    public static int sequenceOf(long timestamp) {
+        return (int) (timestamp & ((1 << SEQUENCE_BITS) - 1));
+    }
+
+    /**
+     * Returns the timestamp for a value recorded now, after a value with the
+     * given timestamp.
+     *
+     * @param last the timestamp of the last value recorded, or Long.MIN_VALUE
+     * if there is none
+     * @param nowMillis the current time in milliseconds
+     * @return a timestamp greater than last
+     */
+    public static long next(long last, long nowMillis) {
+        long now = lowest(nowMillis);
+        return now > last ? now : last + 1;
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.example.itriage.models;
+
+/**
+ * How long the raw readings of vital signs are kept. Readings older than
+ * the raw window are compacted into rollups, one VitalSignsRecord.Bucket
+ * of the minimum, maximum, mean and count of each component per rollup
+ * interval, so that the history of a long-stay patient stays bounded.
+ * Symptoms and prescriptions are always kept in full, and the latest
+ * reading of vital signs is never compacted.
+ */
+public final class RetentionPolicy {
+
+    // Keeps every raw reading forever
+    public static final RetentionPolicy KEEP_ALL = new RetentionPolicy();
+
+    // How long raw readings are kept, in milliseconds
+    private final long rawWindow;
+
+    // The length of time summarized by each rollup, in milliseconds
+    private final long rollupInterval;
+
+    private RetentionPolicy() {
+        this.rawWindow = Long.MAX_VALUE;
+        this.rollupInterval = Long.MAX_VALUE;
+    }
+
+    /**
+     * Constructs a policy which keeps raw readings for the given window and
+     * then compacts them into rollups of the given interval. Rollups start
+     * at multiples of the interval since 1970-01-01T00:00Z.
+     *
+     * @param rawWindow how long to keep raw readings, in milliseconds
+     * @param rollupInterval the length of time of each rollup, in milliseconds
+     * @throws IllegalArgumentException if either length is not positive
+     */
+    public RetentionPolicy(long rawWindow, long rollupInterval) {
+        if (rawWindow <= 0 || rollupInterval <= 0)
+            throw new IllegalArgumentException("The raw window and rollup interval must be positive");
+        this.rawWindow = rawWindow;
+        this.rollupInterval = rollupInterval;
+    }
+
+    /**
+     * Returns how long raw readings are kept.
+     *
+     * @return how long raw readings are kept, in milliseconds
+     */
+    public long getRawWindow() {
+        return rawWindow;
+    }
+
+    /**
+     * Returns the length of time summarized by each rollup.
+     *
+     * @return the length of each rollup, in milliseconds
+     */
+    public long getRollupInterval() {
+        return rollupInterval;
+    }
+
+    /**
+     * Returns the time before which raw readings are compacted at the given
+     * time. This is the start of the rollup interval which holds the end of
+     * the raw window, so only whole intervals are ever compacted.
+     *
+     * @param now the current time in milliseconds
+     * @return the time before which readings are compacted, or Long.MIN_VALUE
+     * if none are
+     */
+    long cutoff(long now) {
+        if (this == KEEP_ALL || now < Long.MIN_VALUE + rawWindow)
+            return Long.MIN_VALUE;
+        long windowStart = now - rawWindow;
+        long intoInterval = windowStart % rollupInterval;
+        if (intoInterval < 0)
+            intoInterval += rollupInterval;
+        return windowStart - intoInterval;
+    }
+
+}
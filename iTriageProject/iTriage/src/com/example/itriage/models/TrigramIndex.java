@@ -0,0 +1,275 @@
+package com.example.itriage.models;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of the trigrams (runs of three characters) in the names and
+ * health card numbers of patients, used to find patients from partial or
+ * misspelled input.
+ *
+ * Each word is padded with spaces before it is split, so the start and end
+ * of words count for more. A patient's score for a query is the fraction of
+ * the query's trigrams found in the patient, so typing part of a name still
+ * scores well, and a typo only loses the few trigrams it touches.
+ *
+ * Like PatientIndex, the trigrams each patient was indexed under are
+ * remembered so the patient can be moved when they change, and readers
+ * share a read lock while writers take the write lock.
+ */
+class TrigramIndex {
+
+    // The lowest score a patient needs to be returned by a search
+    static final float MIN_SCORE = 0.3f;
+
+    /**
+     * Once this many candidates are found, no more postings are read, and
+     * each candidate is scored against the trigrams it was indexed under.
+     * This bounds the work of a search however many patients share its
+     * trigrams.
+     */
+    static final int MAX_CANDIDATES = 5000;
+
+    /**
+     * The rank of a patient in the results of a search. Higher scores come
+     * first, and among equal scores patients with less text come first,
+     * since the query covers more of them.
+     */
+    static class Match implements Comparable<Match> {
+        private final float score;
+        private final int size;
+        private final long id;
+
+        Match(float score, int size, long id) {
+            this.score = score;
+            this.size = size;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            if (score != other.score)
+                return score > other.score ? -1 : 1;
+            if (size != other.size)
+                return size < other.size ? -1 : 1;
+            return id < other.id ? -1 : id > other.id ? 1 : 0;
+        }
+    }
+
+    // The patients whose text contains each trigram
+    private final Map<String, Set<Patient>> postings;
+
+    // The trigrams each patient was last indexed under
+    private final Map<Patient, Set<String>> trigrams;
+
+    // Guards postings and trigrams
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs an empty TrigramIndex.
+     */
+    TrigramIndex() {
+        this.postings = new HashMap<String, Set<Patient>>();
+        this.trigrams = new HashMap<Patient, Set<String>>();
+    }
+
+    /**
+     * Returns the trigrams of the given text, ignoring case.
+     *
+     * @param text some text
+     * @return the trigrams of the text
+     */
+    static Set<String> trigramsOf(String text) {
+        Set<String> result = new HashSet<String>();
+        for (String word : text.toLowerCase(Locale.US).split("\\s+")) {
+            if (word.isEmpty())
+                continue;
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++)
+                result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the trigrams of the name and health card number of the given
+     * patient.
+     *
+     * @param patient a patient
+     * @return the trigrams of the patient
+     */
+    private static Set<String> trigramsOf(Patient patient) {
+        return trigramsOf(patient.getName() + " " + patient.getHealthCardNumber());
+    }
+
+    /**
+     * Returns true if a change to the given field of a patient may change
+     * the trigrams of the patient.
+     *
+     * @param field a field of a patient
+     * @return true if a change to the field may change the trigrams
+     */
+    boolean dependsOn(PatientChangeEvent.Field field) {
+        return field == PatientChangeEvent.Field.NAME ||
+               field == PatientChangeEvent.Field.HEALTH_CARD_NUMBER;
+    }
+
+    /**
+     * Adds the given patient to this index, or updates its trigrams if it
+     * was already indexed.
+     *
+     * @param patient the patient to index
+     */
+    void update(Patient patient) {
+        // Compute the new trigrams before locking, since it reads the patient
+        Set<String> newTrigrams = trigramsOf(patient);
+        lock.writeLock().lock();
+        try {
+            Set<String> oldTrigrams = trigrams.put(patient, newTrigrams);
+            if (oldTrigrams != null) {
+                for (String trigram : oldTrigrams)
+                    if (!newTrigrams.contains(trigram))
+                        unpost(trigram, patient);
+            }
+            for (String trigram : newTrigrams) {
+                if (oldTrigrams != null && oldTrigrams.contains(trigram))
+                    continue;
+                Set<Patient> posting = postings.get(trigram);
+                if (posting == null) {
+                    posting = new HashSet<Patient>();
+                    postings.put(trigram, posting);
+                }
+                posting.add(patient);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the given patient from this index, if it is indexed.
+     *
+     * @param patient the patient to remove
+     */
+    void remove(Patient patient) {
+        lock.writeLock().lock();
+        try {
+            Set<String> oldTrigrams = trigrams.remove(patient);
+            if (oldTrigrams != null)
+                for (String trigram : oldTrigrams)
+                    unpost(trigram, patient);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the given patient from the posting of the given trigram. The
+     * write lock must be held.
+     */
+    private void unpost(String trigram, Patient patient) {
+        Set<Patient> posting = postings.get(trigram);
+        if (posting != null) {
+            posting.remove(patient);
+            if (posting.isEmpty())
+                postings.remove(trigram);
+        }
+    }
+
+    /**
+     * Removes every patient from this index.
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            trigrams.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the best matches for the given query, at most limit of them,
+     * from best to worst.
+     *
+     * @param query the text to search for
+     * @param limit the maximum number of matches to return
+     * @return the best matches for the query
+     */
+    List<Map.Entry<Match, Patient>> search(String query, int limit) {
+        Set<String> queryTrigrams = trigramsOf(query);
+        List<Map.Entry<Match, Patient>> result = new ArrayList<Map.Entry<Match, Patient>>();
+        if (queryTrigrams.isEmpty() || limit <= 0)
+            return result;
+
+        // For each candidate, the number of query trigrams it shares and
+        // the number of trigrams it has
+        Map<Patient, int[]> hits = new HashMap<Patient, int[]>();
+        lock.readLock().lock();
+        try {
+            // Read the rarest trigrams first, so the candidates are the
+            // patients sharing the most selective parts of the query
+            List<Set<Patient>> lists = new ArrayList<Set<Patient>>();
+            for (String trigram : queryTrigrams) {
+                Set<Patient> posting = postings.get(trigram);
+                if (posting != null)
+                    lists.add(posting);
+            }
+            Collections.sort(lists, new Comparator<Set<Patient>>() {
+                @Override
+                public int compare(Set<Patient> posting1, Set<Patient> posting2) {
+                    return posting1.size() - posting2.size();
+                }
+            });
+
+            Set<Patient> candidates = new HashSet<Patient>();
+            for (int i = 0; i < lists.size() && candidates.size() < MAX_CANDIDATES; i++) {
+                for (Patient patient : lists.get(i)) {
+                    candidates.add(patient);
+                    if (candidates.size() == MAX_CANDIDATES)
+                        break;
+                }
+            }
+
+            // Count the query trigrams of each candidate from its own
+            // trigrams, rather than reading the rest of the postings
+            for (Patient patient : candidates) {
+                Set<String> patientTrigrams = trigrams.get(patient);
+                int shared = 0;
+                for (String trigram : queryTrigrams)
+                    if (patientTrigrams.contains(trigram))
+                        shared++;
+                hits.put(patient, new int[] { shared, patientTrigrams.size() });
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Keep the best limit matches, with the worst at the head. This is
+        // done outside the lock, since it reads the patients.
+        PriorityQueue<Map.Entry<Match, Patient>> best = new PriorityQueue<Map.Entry<Match, Patient>>(
+                Math.min(limit, hits.size()) + 1, new Comparator<Map.Entry<Match, Patient>>() {
+            @Override
+            public int compare(Map.Entry<Match, Patient> entry1, Map.Entry<Match, Patient> entry2) {
+                return entry2.getKey().compareTo(entry1.getKey());
+            }
+        });
+        for (Map.Entry<Patient, int[]> hit : hits.entrySet()) {
+            float score = hit.getValue()[0] / (float) queryTrigrams.size();
+            if (score < MIN_SCORE)
+                continue;
+            Patient patient = hit.getKey();
+            Match match = new Match(score, hit.getValue()[1], patient.getId());
+            best.add(new AbstractMap.SimpleImmutableEntry<Match, Patient>(match, patient));
+            if (best.size() > limit)
+                best.poll();
+        }
+        while (!best.isEmpty())
+            result.add(best.poll());
+        Collections.reverse(result);
+        return result;
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.example.itriage.models;
+
+import java.util.*;
+
+/**
+ * An index of waiting patients in descending order by urgency. Patients
+ * with the same urgency are ordered by arrival time, latest first, and then
+ * by id.
+ *
+ * The urgency of a patient may change with no change to the patient, when
+ * the patient reaches an age the urgency policy cares about. Each key holds
+ * the day its urgency lasts until, and the index also keeps its patients in
+ * order of that day, so the patients whose keys have expired can be found
+ * without reading the rest.
+ */
+class UrgencyIndex extends PatientIndex<UrgencyIndex.Key> {
+
+    /**
+     * The position of a patient in this index.
+     */
+    static class Key implements Comparable<Key> {
+        private final int urgency;
+        private final long arrivalTime;
+        private final long id;
+
+        // The epoch day until which urgency is correct; not part of the order
+        private final int validUntil;
+
+        Key(int urgency, long arrivalTime, long id, int validUntil) {
+            this.urgency = urgency;
+            this.arrivalTime = arrivalTime;
+            this.id = id;
+            this.validUntil = validUntil;
+        }
+
+        /**
+         * Returns a key which sorts after every patient with at least the
+         * given urgency, and before every patient with a lower urgency.
+         *
+         * @param urgency an urgency
+         * @return the key which follows every patient with the urgency
+         */
+        static Key below(int urgency) {
+            // Within an urgency the latest arrival sorts first
+            return new Key(urgency - 1, Long.MAX_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (urgency != other.urgency)
+                return urgency > other.urgency ? -1 : 1;
+            if (arrivalTime != other.arrivalTime)
+                return arrivalTime > other.arrivalTime ? -1 : 1;
+            // Break any remaining tie so that distinct patients never collide
+            return id < other.id ? -1 : id > other.id ? 1 : 0;
+        }
+    }
+
+    // Orders keys by the day they expire, and then by id
+    private static final Comparator<Key> BY_EXPIRY = new Comparator<Key>() {
+        @Override
+        public int compare(Key key1, Key key2) {
+            if (key1.validUntil != key2.validUntil)
+                return key1.validUntil < key2.validUntil ? -1 : 1;
+            return key1.id < key2.id ? -1 : key1.id > key2.id ? 1 : 0;
+        }
+    };
+
+    // The indexed patients whose urgency may expire, by the day it expires;
+    // guarded by itself
+    private final TreeMap<Key, Patient> byExpiry = new TreeMap<Key, Patient>(BY_EXPIRY);
+
+    @Override
+    Key keyOf(Patient patient) {
+        // Read the urgency and the day it lasts until as one
+        synchronized (patient) {
+            return new Key(patient.getUrgencyValue(),
+                           patient.getArrivalTimeMillis(),
+                           patient.getId(),
+                           patient.getUrgencyValidUntil());
+        }
+    }
+
+    @Override
+    void added(Key key, Patient patient) {
+        if (key.validUntil != Integer.MAX_VALUE) {
+            synchronized (byExpiry) {
+                byExpiry.put(key, patient);
+            }
+        }
+    }
+
+    @Override
+    void removed(Key key) {
+        if (key.validUntil != Integer.MAX_VALUE) {
+            synchronized (byExpiry) {
+                byExpiry.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the patients in this index whose urgency was computed for an
+     * earlier day and may have changed by the given day.
+     *
+     * @param today the current epoch day
+     * @return the patients whose keys have expired
+     */
+    List<Patient> expired(int today) {
+        List<Patient> expired = new ArrayList<Patient>();
+        synchronized (byExpiry) {
+            for (Map.Entry<Key, Patient> entry : byExpiry.entrySet()) {
+                if (entry.getKey().validUntil > today)
+                    break;
+                expired.add(entry.getValue());
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    boolean dependsOn(PatientChangeEvent.Field field) {
+        switch (field) {
+            case VITAL_SIGNS:
+            case BIRTH_DATE:
+            case ARRIVAL_TIME:
+            case SEEN_BY_DOCTOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    boolean accepts(Patient patient) {
+        return !patient.hasBeenSeenByDoctor();
+    }
+
+}
@@ -0,0 +1,305 @@
+package com.example.itriage.models;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rules which give a patient's urgency from their age and latest vital
+ * signs. A policy is read from a rule table with one rule per line, each
+ * adding points to the urgency when any of its conditions holds:
+ *
+ * <pre>
+ * # points: condition [or condition]...
+ * 1: age &lt; 2
+ * 1: temperature &gt;= 39.0
+ * 1: systolic &gt;= 140 or diastolic &gt;= 90
+ * 1: heartRate &gt;= 100 or heartRate &lt;= 50
+ * </pre>
+ *
+ * Conditions compare age (in whole years, as counted by Patient.getAge),
+ * temperature, systolic, diastolic or heartRate with &lt;, &lt;=, &gt;, &gt;=,
+ * == or != and a number. Conditions on vital signs are false for a patient
+ * with no vital signs. Blank lines and lines starting with # are ignored.
+ *
+ * The table is compiled into flat arrays, so evaluating a policy allocates
+ * nothing. A policy never changes once it is read; the policy in use is
+ * replaced as a whole with ER.setUrgencyPolicy().
+ */
+public class UrgencyPolicy {
+
+    // The values conditions can compare
+    private static final int AGE = 0;
+    private static final int TEMPERATURE = 1;
+    private static final int SYSTOLIC = 2;
+    private static final int DIASTOLIC = 3;
+    private static final int HEART_RATE = 4;
+    private static final String[] METRICS =
+            { "age", "temperature", "systolic", "diastolic", "heartRate" };
+
+    // The comparisons conditions can make; the longer operators come first
+    // so that they are matched before their prefixes
+    private static final int LESS_OR_EQUAL = 0;
+    private static final int GREATER_OR_EQUAL = 1;
+    private static final int EQUAL = 2;
+    private static final int NOT_EQUAL = 3;
+    private static final int LESS = 4;
+    private static final int GREATER = 5;
+    private static final String[] OPERATORS = { "<=", ">=", "==", "!=", "<", ">" };
+
+    /**
+     * The rules which were built into iTriage.
+     */
+    public static final UrgencyPolicy DEFAULT;
+    static {
+        try {
+            DEFAULT = parse(new StringReader(
+                    "1: age < 2\n" +
+                    "1: temperature >= 39.0\n" +
+                    "1: systolic >= 140 or diastolic >= 90\n" +
+                    "1: heartRate >= 100 or heartRate <= 50\n"));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // The policy used to compute urgencies
+    private static volatile UrgencyPolicy current = DEFAULT;
+
+    // The points of each rule
+    private final int[] points;
+
+    // The conditions of rule i are ruleStart[i] up to ruleStart[i + 1]
+    private final int[] ruleStart;
+
+    // The value, comparison and number of each condition
+    private final int[] metric;
+    private final int[] operator;
+    private final double[] threshold;
+
+    private UrgencyPolicy(int[] points, int[] ruleStart, int[] metric,
+                          int[] operator, double[] threshold) {
+        this.points = points;
+        this.ruleStart = ruleStart;
+        this.metric = metric;
+        this.operator = operator;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the policy used to compute urgencies.
+     *
+     * @return the policy in use
+     */
+    public static UrgencyPolicy getCurrent() {
+        return current;
+    }
+
+    /**
+     * Replaces the policy used to compute urgencies. Patients notice the
+     * change the next time their urgency is read; ER.setUrgencyPolicy()
+     * also re-sorts the patients in the ER.
+     *
+     * @param policy the new policy
+     */
+    static void setCurrent(UrgencyPolicy policy) {
+        if (policy == null)
+            throw new NullPointerException("policy");
+        current = policy;
+    }
+
+    /**
+     * Reads a policy from a rule table in UTF-8.
+     *
+     * @param inputStream the stream to read the rule table from
+     * @return the policy in the rule table
+     * @throws IOException if the stream cannot be read or the table is not valid
+     */
+    public static UrgencyPolicy load(InputStream inputStream) throws IOException {
+        return parse(new InputStreamReader(inputStream, "UTF-8"));
+    }
+
+    /**
+     * Reads a policy from a rule table.
+     *
+     * @param reader the reader to read the rule table from
+     * @return the policy in the rule table
+     * @throws IOException if the reader fails or the table is not valid
+     */
+    public static UrgencyPolicy parse(Reader reader) throws IOException {
+        List<Integer> points = new ArrayList<Integer>();
+        List<Integer> ruleStart = new ArrayList<Integer>();
+        List<Integer> metric = new ArrayList<Integer>();
+        List<Integer> operator = new ArrayList<Integer>();
+        List<Double> threshold = new ArrayList<Double>();
+
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            int colon = line.indexOf(':');
+            if (colon < 0)
+                throw invalid(lineNumber, "expected \"points: condition\"");
+            try {
+                points.add(Integer.parseInt(line.substring(0, colon).trim()));
+            } catch (NumberFormatException e) {
+                throw invalid(lineNumber, "points must be a whole number");
+            }
+            ruleStart.add(metric.size());
+
+            for (String condition : line.substring(colon + 1).split("\\s+or\\s+")) {
+                condition = condition.trim();
+                int op = -1;
+                int at = -1;
+                for (int i = 0; i < OPERATORS.length && op < 0; i++) {
+                    at = condition.indexOf(OPERATORS[i]);
+                    if (at > 0)
+                        op = i;
+                }
+                if (op < 0)
+                    throw invalid(lineNumber, "no comparison in \"" + condition + "\"");
+
+                String name = condition.substring(0, at).trim();
+                int m = -1;
+                for (int i = 0; i < METRICS.length; i++)
+                    if (METRICS[i].equals(name))
+                        m = i;
+                if (m < 0)
+                    throw invalid(lineNumber, "unknown value \"" + name + "\"");
+
+                String number = condition.substring(at + OPERATORS[op].length()).trim();
+                try {
+                    threshold.add(Double.parseDouble(number));
+                } catch (NumberFormatException e) {
+                    throw invalid(lineNumber, "\"" + number + "\" is not a number");
+                }
+                metric.add(m);
+                operator.add(op);
+            }
+        }
+        ruleStart.add(metric.size());
+
+        return new UrgencyPolicy(toArray(points), toArray(ruleStart),
+                                 toArray(metric), toArray(operator),
+                                 toDoubleArray(threshold));
+    }
+
+    private static IOException invalid(int lineNumber, String message) {
+        return new IOException("Invalid urgency rule on line " + lineNumber + ": " + message);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    private static double[] toDoubleArray(List<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * Returns the urgency of a patient with the given age and latest vital
+     * signs.
+     *
+     * @param age the age of the patient in years
+     * @param vitalSigns the latest vital signs of the patient, or null
+     * @return the urgency of the patient
+     */
+    int urgencyOf(int age, VitalSigns vitalSigns) {
+        int urgency = 0;
+        for (int rule = 0; rule < points.length; rule++) {
+            for (int i = ruleStart[rule]; i < ruleStart[rule + 1]; i++) {
+                double value;
+                switch (metric[i]) {
+                    case AGE:
+                        value = age;
+                        break;
+                    case TEMPERATURE:
+                        if (vitalSigns == null)
+                            continue;
+                        value = vitalSigns.getTemperature();
+                        break;
+                    case SYSTOLIC:
+                        if (vitalSigns == null)
+                            continue;
+                        value = vitalSigns.getSystolicBloodPressure();
+                        break;
+                    case DIASTOLIC:
+                        if (vitalSigns == null)
+                            continue;
+                        value = vitalSigns.getDiastolicBloodPressure();
+                        break;
+                    default:
+                        if (vitalSigns == null)
+                            continue;
+                        value = vitalSigns.getHeartRate();
+                        break;
+                }
+                if (holds(operator[i], value, threshold[i])) {
+                    urgency += points[rule];
+                    break;
+                }
+            }
+        }
+        return urgency;
+    }
+
+    private static boolean holds(int operator, double value, double threshold) {
+        switch (operator) {
+            case LESS_OR_EQUAL:
+                return value <= threshold;
+            case GREATER_OR_EQUAL:
+                return value >= threshold;
+            case EQUAL:
+                return value == threshold;
+            case NOT_EQUAL:
+                return value != threshold;
+            case LESS:
+                return value < threshold;
+            default:
+                return value > threshold;
+        }
+    }
+
+    /**
+     * Returns the next age after the given one at which urgencyOf() may
+     * give a different result for the same vital signs, or
+     * Integer.MAX_VALUE if no condition on age changes after it.
+     *
+     * @param age the age of the patient in years
+     * @return the next age at which the urgency may change
+     */
+    int nextAgeChange(int age) {
+        int next = Integer.MAX_VALUE;
+        for (int i = 0; i < metric.length; i++) {
+            if (metric[i] != AGE)
+                continue;
+            // A comparison on whole years can only change its result at the
+            // ages on either side of its threshold
+            boolean holdsNow = holds(operator[i], age, threshold[i]);
+            long floor = (long) Math.floor(threshold[i]);
+            for (long candidate = floor; candidate <= floor + 1; candidate++) {
+                if (candidate > age && candidate < next &&
+                    holds(operator[i], candidate, threshold[i]) != holdsNow)
+                    next = (int) candidate;
+            }
+        }
+        return next;
+    }
+
+}
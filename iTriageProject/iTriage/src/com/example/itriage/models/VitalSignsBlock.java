@@ -0,0 +1,215 @@
+package com.example.itriage.models;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A sealed, compressed run of readings of vital signs, in the manner of the
+ * Gorilla time-series format. Consecutive readings of one patient change very
+ * little, so each reading is stored as the change from the one before it.
+ *
+ * A block starts with the number of readings, the first RecordTimestamp and
+ * the distance from the first timestamp to the last, followed by the
+ * readings. The first reading stores each of its components in full. Every
+ * later reading starts with a flag byte, which says which of the four
+ * components changed and whether the timestamp has a sequence number. Then
+ * comes the change in the gap between timestamps, in milliseconds (the delta
+ * of deltas). After that come the sequence number, if any, and the change in
+ * each component that changed. All numbers are varints, and signed ones are
+ * zig-zag encoded, so a reading taken on a steady schedule with a single
+ * changed component takes three bytes.
+ */
+final class VitalSignsBlock {
+
+    // The flag of a reading whose timestamp has a sequence number
+    private static final int HAS_SEQUENCE = 1 << PackedVitalSigns.COMPONENTS;
+
+    // The encoded readings
+    private final byte[] data;
+
+    // The number of readings in this block
+    private final int size;
+
+    // The timestamps of the first and last readings in this block
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+
+    private VitalSignsBlock(byte[] data) {
+        this.data = data;
+        int[] position = new int[1];
+        this.size = (int) readVarint(data, position);
+        this.firstTimestamp = zigZagDecode(readVarint(data, position));
+        this.lastTimestamp = firstTimestamp + readVarint(data, position);
+    }
+
+    /**
+     * Returns a block of the given readings, which must be in order by
+     * timestamp.
+     *
+     * @param timestamps the RecordTimestamp of each reading
+     * @param readings each reading, encoded by PackedVitalSigns
+     * @param from the position of the first reading to encode
+     * @param to the position at which to stop, exclusive
+     * @return the block of the readings
+     */
+    static VitalSignsBlock encode(long[] timestamps, long[] readings, int from, int to) {
+        if (from >= to)
+            throw new IllegalArgumentException("A block must hold at least one reading");
+        ByteArrayOutputStream out = new ByteArrayOutputStream((to - from) * 4 + 16);
+        writeVarint(out, to - from);
+        writeVarint(out, zigZagEncode(timestamps[from]));
+        writeVarint(out, timestamps[to - 1] - timestamps[from]);
+        for (int component = 0; component < PackedVitalSigns.COMPONENTS; component++)
+            writeVarint(out, PackedVitalSigns.component(readings[from], component));
+
+        long previousMillis = RecordTimestamp.millisOf(timestamps[from]);
+        long previousGap = 0;
+        for (int i = from + 1; i < to; i++) {
+            long millis = RecordTimestamp.millisOf(timestamps[i]);
+            int sequence = RecordTimestamp.sequenceOf(timestamps[i]);
+            long gap = millis - previousMillis;
+
+            int flags = sequence != 0 ? HAS_SEQUENCE : 0;
+            for (int component = 0; component < PackedVitalSigns.COMPONENTS; component++)
+                if (PackedVitalSigns.component(readings[i], component)
+                        != PackedVitalSigns.component(readings[i - 1], component))
+                    flags |= 1 << component;
+
+            out.write(flags);
+            writeVarint(out, zigZagEncode(gap - previousGap));
+            if (sequence != 0)
+                writeVarint(out, sequence);
+            for (int component = 0; component < PackedVitalSigns.COMPONENTS; component++)
+                if ((flags & (1 << component)) != 0)
+                    writeVarint(out, zigZagEncode(PackedVitalSigns.component(readings[i], component)
+                                                  - PackedVitalSigns.component(readings[i - 1], component)));
+            previousMillis = millis;
+            previousGap = gap;
+        }
+        return new VitalSignsBlock(out.toByteArray());
+    }
+
+    /**
+     * Decodes the readings of this block into the given arrays, starting at
+     * the given position.
+     *
+     * @param timestamps the array to fill with the timestamp of each reading
+     * @param readings the array to fill with each packed reading
+     * @param offset the position of the first reading in the arrays
+     */
+    void decode(long[] timestamps, long[] readings, int offset) {
+        int[] position = new int[1];
+        readVarint(data, position);
+        readVarint(data, position);
+        readVarint(data, position);
+
+        int[] components = new int[PackedVitalSigns.COMPONENTS];
+        for (int component = 0; component < components.length; component++)
+            components[component] = (int) readVarint(data, position);
+        timestamps[offset] = firstTimestamp;
+        readings[offset] = PackedVitalSigns.fromComponents(components);
+
+        long millis = RecordTimestamp.millisOf(firstTimestamp);
+        long gap = 0;
+        for (int i = offset + 1; i < offset + size; i++) {
+            int flags = data[position[0]++] & 0xff;
+            gap += zigZagDecode(readVarint(data, position));
+            millis += gap;
+            int sequence = (flags & HAS_SEQUENCE) != 0 ? (int) readVarint(data, position) : 0;
+            timestamps[i] = RecordTimestamp.lowest(millis) + sequence;
+
+            long reading = readings[i - 1];
+            if ((flags & (HAS_SEQUENCE - 1)) != 0) {
+                for (int component = 0; component < components.length; component++)
+                    if ((flags & (1 << component)) != 0)
+                        components[component] += (int) zigZagDecode(readVarint(data, position));
+                reading = PackedVitalSigns.fromComponents(components);
+            }
+            readings[i] = reading;
+        }
+    }
+
+    /**
+     * Returns the number of readings in this block.
+     *
+     * @return the number of readings in this block
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the timestamp of the first reading in this block.
+     *
+     * @return the RecordTimestamp of the first reading
+     */
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * Returns the timestamp of the last reading in this block.
+     *
+     * @return the RecordTimestamp of the last reading
+     */
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Returns the number of bytes of the encoded readings.
+     *
+     * @return the size of this block in bytes
+     */
+    int getByteCount() {
+        return data.length;
+    }
+
+    /**
+     * Returns this block as a Base64 string, for saving.
+     *
+     * @return this block in Base64
+     */
+    String toBase64() {
+        return Base64.encodeToString(data, Base64.NO_WRAP);
+    }
+
+    /**
+     * Returns the block saved as the given Base64 string by toBase64.
+     *
+     * @param text a block in Base64
+     * @return the block
+     * @throws IllegalArgumentException if the text is not Base64
+     */
+    static VitalSignsBlock fromBase64(String text) {
+        return new VitalSignsBlock(Base64.decode(text, Base64.DEFAULT));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,986 @@
+package com.example.itriage.models;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.*;
+
+/**
+ * A PatientRecord of vital signs which keeps the times and the readings in
+ * two primitive arrays, ordered by the time each reading was recorded,
+ * instead of keeping a VitalSigns object and a map entry for every reading.
+ * Each reading is encoded in a long by PackedVitalSigns.
+ *
+ * Readings are keyed by RecordTimestamps, which only increase, so recording
+ * a reading appends it to the arrays; only a reading loaded out of order is
+ * inserted in place. Readings are found by time with a binary search.
+ *
+ * Once the arrays hold twice BLOCK_SIZE readings, the earliest BLOCK_SIZE
+ * are sealed into a compressed VitalSignsBlock, so the history of a
+ * long-stay patient takes a few bytes per reading instead of sixteen. The
+ * block last read is kept decoded, so reading a history in order decodes
+ * each block once.
+ *
+ * Under a RetentionPolicy, readings older than its raw window are compacted
+ * into rollups, which are kept in place of the readings and are included
+ * when the record is downsampled.
+ */
+public class VitalSignsRecord extends PatientRecord<VitalSigns> {
+
+    // The size of the arrays of a record when its first reading is recorded
+    private static final int INITIAL_CAPACITY = 4;
+
+    // The number of readings sealed into each block
+    private static final int BLOCK_SIZE = 256;
+
+    // The RecordTimestamp of each reading after those in blocks, in order
+    private long[] timestamps;
+
+    // Each reading after those in blocks, encoded by PackedVitalSigns
+    private long[] readings;
+
+    // The number of readings in this record, in blocks and in the arrays
+    private int size;
+
+    // The earliest readings, sealed into blocks, in order, or null if none
+    // have been sealed
+    private List<VitalSignsBlock> blocks;
+
+    // The position of the first reading of each block
+    private int[] blockStarts;
+
+    // The number of readings in blocks
+    private int sealed;
+
+    // The number of the block decoded into the arrays below, or -1 if none is
+    private int decodedBlock = -1;
+    private long[] decodedTimestamps;
+    private long[] decodedReadings;
+
+    // Summaries of the readings which have been compacted, in order, or null
+    // if none have been
+    private List<Bucket> rollups;
+
+    // True while a compaction of this record is waiting to run
+    private boolean compactionScheduled;
+
+    /**
+     * Constructs a new, empty VitalSignsRecord.
+     */
+    public VitalSignsRecord() {
+        super((TreeMap<Long, VitalSigns>) null);
+        this.timestamps = new long[0];
+        this.readings = new long[0];
+    }
+
+    /**
+     * Records the given vital signs at the current time.
+     *
+     * @param value the vital signs to record
+     * @throws IllegalArgumentException if the vital signs cannot be packed
+     */
+    @Override
+    public synchronized void recordValue(VitalSigns value) {
+        recordPackedValue(PackedVitalSigns.pack(value));
+    }
+
+    /**
+     * Records the given packed vital signs at the current time, with a
+     * RecordTimestamp after that of every other reading.
+     *
+     * @param packed vital signs encoded by PackedVitalSigns
+     */
+    synchronized void recordPackedValue(long packed) {
+        long last = size == 0 ? Long.MIN_VALUE : timestampAt(size - 1);
+        recordPackedValue(RecordTimestamp.next(last, Clock.getCurrent().currentTimeMillis()),
+                          packed);
+    }
+
+    /**
+     * Records the given packed vital signs with the given timestamp,
+     * replacing any reading with the same timestamp.
+     *
+     * @param timestamp the RecordTimestamp of the reading
+     * @param packed vital signs encoded by PackedVitalSigns
+     */
+    synchronized void recordPackedValue(long timestamp, long packed) {
+        if (sealed > 0 && timestamp <= blocks.get(blocks.size() - 1).getLastTimestamp())
+            unseal();
+
+        int tail = size - sealed;
+        int index;
+        if (tail == 0 || timestamps[tail - 1] < timestamp) {
+            index = tail;
+        } else {
+            index = Arrays.binarySearch(timestamps, 0, tail, timestamp);
+            if (index >= 0) {
+                readings[index] = packed;
+                return;
+            }
+            index = -index - 1;
+        }
+
+        if (tail == timestamps.length)
+            grow();
+        int moved = tail - index;
+        if (moved > 0) {
+            System.arraycopy(timestamps, index, timestamps, index + 1, moved);
+            System.arraycopy(readings, index, readings, index + 1, moved);
+        }
+        timestamps[index] = timestamp;
+        readings[index] = packed;
+        size++;
+        if (size - sealed >= 2 * BLOCK_SIZE)
+            seal();
+    }
+
+    @Override
+    public synchronized TreeMap<Long, VitalSigns> getHistory() {
+        TreeMap<Long, VitalSigns> history = new TreeMap<Long, VitalSigns>();
+        for (int i = 0; i < size; i++)
+            history.put(timestampAt(i), valueAt(i));
+        return history;
+    }
+
+    @Override
+    public synchronized VitalSigns getValue(long timestamp) {
+        int index = lowerBound(timestamp);
+        return index < size && timestampAt(index) == timestamp ? valueAt(index) : null;
+    }
+
+    /**
+     * Returns the vital signs in effect at the given time, which are the
+     * latest ones recorded at or before that time.
+     *
+     * @param time a time in milliseconds
+     * @return the vital signs in effect at the time, or null if none had been
+     * recorded yet
+     */
+    public synchronized VitalSigns getValueAt(long time) {
+        int index = lowerBound(RecordTimestamp.lowest(time + 1)) - 1;
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    @Override
+    public synchronized VitalSigns getLatestValue() {
+        return size > 0 ? valueAt(size - 1) : null;
+    }
+
+    @Override
+    public SortedMap<Long, VitalSigns> getHistoryBetween(long from, long to) {
+        if (from > to)
+            throw new IllegalArgumentException("from is after to");
+        return new HistoryView(RecordTimestamp.lowest(from), RecordTimestamp.lowest(to));
+    }
+
+    @Override
+    public SortedMap<Long, VitalSigns> getHistorySince(long from) {
+        return new HistoryView(RecordTimestamp.lowest(from), Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized SortedMap<Long, VitalSigns> getLatestHistory(int count) {
+        if (count <= 0)
+            return new HistoryView(Long.MAX_VALUE, Long.MAX_VALUE);
+        return new HistoryView(size > count ? timestampAt(size - count) : Long.MIN_VALUE,
+                               Long.MAX_VALUE);
+    }
+
+    /**
+     * Summarizes the readings of this record into at most the given number
+     * of buckets of equal length of time, from its first reading to its
+     * last. See downsample(long, long, int).
+     *
+     * @param buckets the greatest number of buckets to return
+     * @return the buckets which have at least one reading, in order
+     */
+    public synchronized List<Bucket> downsample(int buckets) {
+        if (size == 0)
+            return new ArrayList<Bucket>();
+        long from = rollups != null && !rollups.isEmpty()
+                ? rollups.get(0).startTime : RecordTimestamp.millisOf(timestampAt(0));
+        return downsample(from, RecordTimestamp.millisOf(timestampAt(size - 1)) + 1, buckets);
+    }
+
+    /**
+     * Summarizes the readings recorded at or after from and before to into
+     * at most the given number of buckets of equal length of time, with the
+     * minimum, maximum and average of each component in each bucket. A
+     * history screen can show the buckets instead of the readings, at a cost
+     * which does not grow with the number of readings. Rollups of compacted
+     * readings are counted in the bucket in which they start.
+     *
+     * @param from the earliest time to include, in milliseconds
+     * @param to the time at which to stop, exclusive
+     * @param buckets the greatest number of buckets to return
+     * @return the buckets which have at least one reading, in order
+     * @throws IllegalArgumentException if from is not before to, or there
+     * are no buckets
+     */
+    public synchronized List<Bucket> downsample(long from, long to, int buckets) {
+        if (from >= to || to - from < 0)
+            throw new IllegalArgumentException("Invalid range: " + from + " to " + to);
+        if (buckets <= 0)
+            throw new IllegalArgumentException("buckets must be positive: " + buckets);
+
+        long width = (to - from - 1) / buckets + 1;
+        List<Bucket> summary = new ArrayList<Bucket>(Math.min(buckets, size));
+        if (rollups != null) {
+            for (Bucket rollup : rollups)
+                if (rollup.startTime >= from && rollup.startTime < to)
+                    bucketAt(summary, from, to, width, rollup.startTime).add(rollup);
+        }
+        int end = lowerBound(RecordTimestamp.lowest(to));
+        for (int i = lowerBound(RecordTimestamp.lowest(from)); i < end; i++) {
+            long time = RecordTimestamp.millisOf(timestampAt(i));
+            bucketAt(summary, from, to, width, time).add(readingAt(i));
+        }
+        return summary;
+    }
+
+    /**
+     * Returns the bucket of the given width which holds the given time,
+     * adding it to the end of the summary unless it is already the last.
+     * Times must be given in order.
+     *
+     * @param summary the buckets so far
+     * @param from the start of the first bucket
+     * @param to the end of the last bucket
+     * @param width the length of time of each bucket
+     * @param time a time at or after that of the last bucket
+     * @return the bucket which holds the time
+     */
+    private static Bucket bucketAt(List<Bucket> summary, long from, long to,
+                                   long width, long time) {
+        long start = from + (time - from) / width * width;
+        Bucket last = summary.isEmpty() ? null : summary.get(summary.size() - 1);
+        if (last != null && last.startTime == start)
+            return last;
+        Bucket bucket = new Bucket(start, Math.min(to, start + width));
+        summary.add(bucket);
+        return bucket;
+    }
+
+    /**
+     * Returns the rollups of the readings which have been compacted, from
+     * the earliest to the latest.
+     *
+     * @return the rollups of this record
+     */
+    public synchronized List<Bucket> getRollups() {
+        if (rollups == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(new ArrayList<Bucket>(rollups));
+    }
+
+    /**
+     * Returns true if this record has readings which the given policy would
+     * compact now and no compaction is already waiting to run, and if so
+     * marks a compaction as waiting.
+     *
+     * @param policy a retention policy
+     * @param now the current time in milliseconds
+     * @return true if the caller should compact this record
+     */
+    synchronized boolean scheduleCompaction(RetentionPolicy policy, long now) {
+        if (compactionScheduled || size < 2
+                || RecordTimestamp.millisOf(timestampAt(0)) >= policy.cutoff(now)
+                || compactable(policy, now) == 0)
+            return false;
+        compactionScheduled = true;
+        return true;
+    }
+
+    /**
+     * Compacts the readings which the given policy no longer keeps raw into
+     * one rollup per rollup interval. The latest reading is always kept, so
+     * getLatestValue is unchanged, and so are the other readings of its
+     * interval, so that an interval is never split between two rollups.
+     * Readings in the interval of the latest rollup are added to it.
+     *
+     * @param policy a retention policy
+     * @param now the current time in milliseconds
+     * @return the number of readings compacted
+     */
+    synchronized int compact(RetentionPolicy policy, long now) {
+        compactionScheduled = false;
+        int end = compactable(policy, now);
+        if (end == 0)
+            return 0;
+
+        if (rollups == null)
+            rollups = new ArrayList<Bucket>();
+        long interval = policy.getRollupInterval();
+        Bucket bucket = rollups.isEmpty() ? null : rollups.get(rollups.size() - 1);
+        for (int i = 0; i < end; i++) {
+            long time = RecordTimestamp.millisOf(timestampAt(i));
+            if (bucket == null || time < bucket.startTime || time >= bucket.endTime) {
+                long start = intervalStart(time, interval);
+                bucket = new Bucket(start, start + interval);
+                rollups.add(bucket);
+            }
+            bucket.add(readingAt(i));
+        }
+
+        removeFirst(end);
+        return end;
+    }
+
+    /**
+     * Returns the number of readings, from the earliest, which compact
+     * would compact under the given policy now.
+     *
+     * @param policy a retention policy
+     * @param now the current time in milliseconds
+     * @return the number of readings to compact
+     */
+    private int compactable(RetentionPolicy policy, long now) {
+        if (size == 0)
+            return 0;
+        // The cutoff is the start of an interval, so whole intervals are
+        // compacted unless the latest reading is before it
+        int end = lowerBound(RecordTimestamp.lowest(policy.cutoff(now)));
+        if (end == size) {
+            long latest = RecordTimestamp.millisOf(timestampAt(size - 1));
+            long start = intervalStart(latest, policy.getRollupInterval());
+            end = lowerBound(RecordTimestamp.lowest(start));
+        }
+        return end;
+    }
+
+    /**
+     * Returns the start of the rollup interval which holds the given time.
+     *
+     * @param time a time in milliseconds
+     * @param interval the length of each rollup interval
+     * @return the start of the interval which holds the time
+     */
+    private static long intervalStart(long time, long interval) {
+        long intoInterval = time % interval;
+        if (intoInterval < 0)
+            intoInterval += interval;
+        return time - intoInterval;
+    }
+
+    /**
+     * Returns the number of readings in this record.
+     *
+     * @return the number of readings in this record
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time of the reading at the given position, where readings
+     * are numbered from the earliest, starting at 0.
+     *
+     * @param index a position less than size
+     * @return the time of the reading in milliseconds
+     */
+    public synchronized long getTime(int index) {
+        checkIndex(index);
+        return RecordTimestamp.millisOf(timestampAt(index));
+    }
+
+    /**
+     * Returns the RecordTimestamp of the reading at the given position,
+     * where readings are numbered from the earliest, starting at 0.
+     *
+     * @param index a position less than size
+     * @return the timestamp of the reading
+     */
+    public synchronized long getTimestamp(int index) {
+        checkIndex(index);
+        return timestampAt(index);
+    }
+
+    /**
+     * Returns the packed vital signs of the reading at the given position,
+     * where readings are numbered from the earliest, starting at 0. The
+     * components can be read with PackedVitalSigns without creating a
+     * VitalSigns for each reading.
+     *
+     * @param index a position less than size
+     * @return the reading encoded by PackedVitalSigns
+     */
+    public synchronized long getPackedValue(int index) {
+        checkIndex(index);
+        return readingAt(index);
+    }
+
+    /**
+     * Returns a copy of every reading encoded by PackedVitalSigns, from the
+     * earliest to the latest.
+     *
+     * @return the packed readings
+     */
+    public synchronized long[] getPackedValues() {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++)
+            values[i] = readingAt(i);
+        return values;
+    }
+
+    /**
+     * Returns the vital signs at the given position.
+     *
+     * @param index a position less than size
+     * @return the vital signs at the position
+     */
+    private VitalSigns valueAt(int index) {
+        return PackedVitalSigns.unpack(readingAt(index));
+    }
+
+    /**
+     * Returns the RecordTimestamp of the reading at the given position,
+     * decoding its block if it is sealed.
+     *
+     * @param index a position less than size
+     * @return the timestamp of the reading
+     */
+    private long timestampAt(int index) {
+        if (index >= sealed)
+            return timestamps[index - sealed];
+        int block = decodeBlockOf(index);
+        return decodedTimestamps[index - blockStarts[block]];
+    }
+
+    /**
+     * Returns the packed reading at the given position, decoding its block
+     * if it is sealed.
+     *
+     * @param index a position less than size
+     * @return the reading encoded by PackedVitalSigns
+     */
+    private long readingAt(int index) {
+        if (index >= sealed)
+            return readings[index - sealed];
+        int block = decodeBlockOf(index);
+        return decodedReadings[index - blockStarts[block]];
+    }
+
+    /**
+     * Returns the number of the block which holds the given position, after
+     * decoding it.
+     *
+     * @param index a position less than sealed
+     * @return the number of the block
+     */
+    private int decodeBlockOf(int index) {
+        if (decodedBlock >= 0 && index >= blockStarts[decodedBlock]
+                && index < blockStarts[decodedBlock] + blocks.get(decodedBlock).size())
+            return decodedBlock;
+        int block = Arrays.binarySearch(blockStarts, 0, blocks.size(), index);
+        if (block < 0)
+            block = -block - 2;
+        decode(block);
+        return block;
+    }
+
+    /**
+     * Decodes the given block, unless it is already decoded.
+     *
+     * @param block the number of a block
+     */
+    private void decode(int block) {
+        if (block == decodedBlock)
+            return;
+        VitalSignsBlock sealedBlock = blocks.get(block);
+        if (decodedTimestamps == null || decodedTimestamps.length < sealedBlock.size()) {
+            decodedTimestamps = new long[Math.max(BLOCK_SIZE, sealedBlock.size())];
+            decodedReadings = new long[decodedTimestamps.length];
+        }
+        sealedBlock.decode(decodedTimestamps, decodedReadings, 0);
+        decodedBlock = block;
+    }
+
+    /**
+     * Returns the position of the first reading with the given timestamp
+     * or a later one, or size if there is none.
+     *
+     * @param timestamp a RecordTimestamp
+     * @return the position of the first reading at or after the timestamp
+     */
+    private int lowerBound(long timestamp) {
+        if (sealed == 0 || timestamp > blocks.get(blocks.size() - 1).getLastTimestamp()) {
+            int index = Arrays.binarySearch(timestamps, 0, size - sealed, timestamp);
+            return sealed + (index >= 0 ? index : -index - 1);
+        }
+
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).getLastTimestamp() < timestamp)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        decode(low);
+        int index = Arrays.binarySearch(decodedTimestamps, 0, blocks.get(low).size(), timestamp);
+        return blockStarts[low] + (index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Seals the earliest readings of the arrays into blocks of BLOCK_SIZE,
+     * leaving between BLOCK_SIZE and twice BLOCK_SIZE readings in the arrays.
+     */
+    private void seal() {
+        int tail = size - sealed;
+        int from = 0;
+        while (tail - from >= 2 * BLOCK_SIZE) {
+            addBlock(VitalSignsBlock.encode(timestamps, readings, from, from + BLOCK_SIZE));
+            from += BLOCK_SIZE;
+        }
+        System.arraycopy(timestamps, from, timestamps, 0, tail - from);
+        System.arraycopy(readings, from, readings, 0, tail - from);
+        if (timestamps.length != 2 * BLOCK_SIZE)
+            resize(2 * BLOCK_SIZE);
+    }
+
+    /**
+     * Adds a block after the last, holding the readings which follow those
+     * already sealed.
+     *
+     * @param block a block of readings later than those of the last block
+     */
+    private void addBlock(VitalSignsBlock block) {
+        if (blocks == null) {
+            blocks = new ArrayList<VitalSignsBlock>();
+            blockStarts = new int[INITIAL_CAPACITY];
+        }
+        if (blocks.size() == blockStarts.length)
+            blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+        blockStarts[blocks.size()] = sealed;
+        blocks.add(block);
+        sealed += block.size();
+    }
+
+    /**
+     * Decodes every block back into the arrays, so that a reading can be
+     * inserted among them.
+     */
+    private void unseal() {
+        int tail = size - sealed;
+        long[] allTimestamps = new long[size + 1];
+        long[] allReadings = new long[size + 1];
+        for (int block = 0; block < blocks.size(); block++)
+            blocks.get(block).decode(allTimestamps, allReadings, blockStarts[block]);
+        System.arraycopy(timestamps, 0, allTimestamps, sealed, tail);
+        System.arraycopy(readings, 0, allReadings, sealed, tail);
+        timestamps = allTimestamps;
+        readings = allReadings;
+        blocks = null;
+        blockStarts = null;
+        sealed = 0;
+        decodedBlock = -1;
+        decodedTimestamps = null;
+        decodedReadings = null;
+    }
+
+    /**
+     * Removes the given number of the earliest readings. Blocks which only
+     * hold removed readings are dropped, and a block which holds some of
+     * them is sealed again without them.
+     *
+     * @param count the number of readings to remove, less than size
+     */
+    private void removeFirst(int count) {
+        List<VitalSignsBlock> oldBlocks = blocks;
+        int[] oldStarts = blockStarts;
+        int oldSealed = sealed;
+        blocks = null;
+        blockStarts = null;
+        sealed = 0;
+        decodedBlock = -1;
+        if (oldBlocks != null) {
+            for (int i = 0; i < oldBlocks.size(); i++) {
+                VitalSignsBlock block = oldBlocks.get(i);
+                int start = oldStarts[i];
+                if (start + block.size() <= count)
+                    continue;
+                if (start >= count) {
+                    addBlock(block);
+                    continue;
+                }
+                long[] blockTimestamps = new long[block.size()];
+                long[] blockReadings = new long[block.size()];
+                block.decode(blockTimestamps, blockReadings, 0);
+                addBlock(VitalSignsBlock.encode(blockTimestamps, blockReadings,
+                                                count - start, block.size()));
+            }
+        }
+
+        int tail = size - oldSealed;
+        int removed = Math.max(0, count - oldSealed);
+        System.arraycopy(timestamps, removed, timestamps, 0, tail - removed);
+        System.arraycopy(readings, removed, readings, 0, tail - removed);
+        size -= count;
+        resize(Math.max(tail - removed, INITIAL_CAPACITY));
+    }
+
+    /**
+     * Checks that a reading exists at the given position.
+     *
+     * @param index a position
+     * @throws IndexOutOfBoundsException if there is no reading at the position
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+
+    /**
+     * Grows the arrays by half, so that appending is amortized O(1).
+     */
+    private void grow() {
+        int tail = size - sealed;
+        int capacity = Math.max(INITIAL_CAPACITY, tail + (tail >> 1));
+        resize(capacity);
+    }
+
+    /**
+     * Copies the arrays to the given capacity.
+     *
+     * @param capacity the new length of the arrays, at least the number of
+     * readings in them
+     */
+    private void resize(int capacity) {
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        readings = Arrays.copyOf(readings, capacity);
+    }
+
+    /**
+     * A summary of the readings recorded in a span of time.
+     */
+    public static class Bucket {
+
+        // The time at which this bucket starts, and at which it ends, exclusive
+        private final long startTime;
+        private final long endTime;
+
+        // The number of readings in this bucket
+        private int count;
+
+        // The smallest and largest value of each component, in the units of
+        // PackedVitalSigns
+        private final int[] minimum = {Integer.MAX_VALUE, Integer.MAX_VALUE,
+                                       Integer.MAX_VALUE, Integer.MAX_VALUE};
+        private final int[] maximum = new int[4];
+
+        // The sum of each component, in the units of PackedVitalSigns
+        private final long[] sum = new long[4];
+
+        Bucket(long startTime, long endTime) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        /**
+         * Adds a packed reading to this bucket.
+         *
+         * @param packed a reading encoded by PackedVitalSigns
+         */
+        void add(long packed) {
+            add(0, (int) Math.round(PackedVitalSigns.temperature(packed) * 10));
+            add(1, PackedVitalSigns.systolicBloodPressure(packed));
+            add(2, PackedVitalSigns.diastolicBloodPressure(packed));
+            add(3, PackedVitalSigns.heartRate(packed));
+            count++;
+        }
+
+        /**
+         * Adds every reading summarized by another bucket to this bucket.
+         *
+         * @param other a bucket
+         */
+        void add(Bucket other) {
+            for (int i = 0; i < sum.length; i++) {
+                minimum[i] = Math.min(minimum[i], other.minimum[i]);
+                maximum[i] = Math.max(maximum[i], other.maximum[i]);
+                sum[i] += other.sum[i];
+            }
+            count += other.count;
+        }
+
+        private void add(int component, int value) {
+            minimum[component] = Math.min(minimum[component], value);
+            maximum[component] = Math.max(maximum[component], value);
+            sum[component] += value;
+        }
+
+        /**
+         * Returns the time at which this bucket starts.
+         *
+         * @return the start of this bucket in milliseconds
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Returns the time at which this bucket ends, exclusive.
+         *
+         * @return the end of this bucket in milliseconds
+         */
+        public long getEndTime() {
+            return endTime;
+        }
+
+        /**
+         * Returns the number of readings in this bucket.
+         *
+         * @return the number of readings in this bucket
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the smallest value of each component in this bucket.
+         *
+         * @return the smallest value of each component
+         */
+        public VitalSigns getMinimum() {
+            return new VitalSigns(minimum[0] / 10.0, minimum[1], minimum[2], minimum[3]);
+        }
+
+        /**
+         * Returns the largest value of each component in this bucket.
+         *
+         * @return the largest value of each component
+         */
+        public VitalSigns getMaximum() {
+            return new VitalSigns(maximum[0] / 10.0, maximum[1], maximum[2], maximum[3]);
+        }
+
+        /**
+         * Returns the average of each component in this bucket, with
+         * temperatures rounded to a tenth of a degree and the others to
+         * whole numbers.
+         *
+         * @return the average of each component
+         */
+        public VitalSigns getAverage() {
+            return new VitalSigns(Math.round((double) sum[0] / count) / 10.0,
+                                  (int) Math.round((double) sum[1] / count),
+                                  (int) Math.round((double) sum[2] / count),
+                                  (int) Math.round((double) sum[3] / count));
+        }
+    }
+
+    /**
+     * A read-only view of the readings recorded at or after from and before
+     * to. The view finds its readings in the arrays of the record each time
+     * it is read, so it sees readings recorded after it was made.
+     */
+    private class HistoryView extends AbstractMap<Long, VitalSigns>
+            implements SortedMap<Long, VitalSigns> {
+
+        // The earliest timestamp in this view, and the timestamp at which it
+        // stops
+        private final long from;
+        private final long to;
+
+        HistoryView(long from, long to) {
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+
+        @Override
+        public Comparator<? super Long> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<Long, VitalSigns> subMap(Long fromKey, Long toKey) {
+            if (fromKey > toKey)
+                throw new IllegalArgumentException("fromKey is after toKey");
+            return new HistoryView(Math.max(from, fromKey), Math.min(to, toKey));
+        }
+
+        @Override
+        public SortedMap<Long, VitalSigns> headMap(Long toKey) {
+            return new HistoryView(from, Math.min(to, toKey));
+        }
+
+        @Override
+        public SortedMap<Long, VitalSigns> tailMap(Long fromKey) {
+            return new HistoryView(Math.max(from, fromKey), to);
+        }
+
+        @Override
+        public Long firstKey() {
+            synchronized (VitalSignsRecord.this) {
+                int start = lowerBound(from);
+                if (start == lowerBound(to))
+                    throw new NoSuchElementException();
+                return timestampAt(start);
+            }
+        }
+
+        @Override
+        public Long lastKey() {
+            synchronized (VitalSignsRecord.this) {
+                int end = lowerBound(to);
+                if (end == lowerBound(from))
+                    throw new NoSuchElementException();
+                return timestampAt(end - 1);
+            }
+        }
+
+        @Override
+        public VitalSigns get(Object key) {
+            if (!(key instanceof Long))
+                return null;
+            long time = (Long) key;
+            return time >= from && time < to ? getValue(time) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            synchronized (VitalSignsRecord.this) {
+                return lowerBound(to) - lowerBound(from);
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<Long, VitalSigns>> entrySet() {
+            return new AbstractSet<Map.Entry<Long, VitalSigns>>() {
+                @Override
+                public Iterator<Map.Entry<Long, VitalSigns>> iterator() {
+                    return new Iterator<Map.Entry<Long, VitalSigns>>() {
+                        // The earliest timestamp of the next reading to return
+                        private long next = from;
+
+                        @Override
+                        public boolean hasNext() {
+                            synchronized (VitalSignsRecord.this) {
+                                int index = lowerBound(next);
+                                return index < size && timestampAt(index) < to;
+                            }
+                        }
+
+                        @Override
+                        public Map.Entry<Long, VitalSigns> next() {
+                            synchronized (VitalSignsRecord.this) {
+                                int index = lowerBound(next);
+                                if (index == size || timestampAt(index) >= to)
+                                    throw new NoSuchElementException();
+                                long timestamp = timestampAt(index);
+                                next = timestamp + 1;
+                                return new SimpleImmutableEntry<Long, VitalSigns>(
+                                        timestamp, valueAt(index));
+                            }
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return HistoryView.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes a VitalSignsRecord as JSON in the same form as any other
+     * PatientRecord, with its sealed blocks in Base64 under "blocks" and its
+     * other readings under "entries", and reads it back without decoding the
+     * blocks.
+     */
+    static class Adapter implements JsonSerializer<VitalSignsRecord>,
+                                    JsonDeserializer<VitalSignsRecord> {
+
+        // The type of the list of rollups of a record
+        private static final Type ROLLUPS_TYPE = new TypeToken<ArrayList<Bucket>>(){}.getType();
+
+        @Override
+        public JsonElement serialize(VitalSignsRecord record, Type type,
+                                     JsonSerializationContext context) {
+            JsonArray blocks = new JsonArray();
+            JsonObject entries = new JsonObject();
+            JsonElement rollups = null;
+            // The rollups are read under the same lock as the readings, since
+            // a compaction in between would move readings into a rollup and
+            // save them twice
+            synchronized (record) {
+                if (record.blocks != null) {
+                    for (VitalSignsBlock block : record.blocks)
+                        blocks.add(new JsonPrimitive(block.toBase64()));
+                }
+                for (int i = record.sealed; i < record.size; i++)
+                    entries.add(String.valueOf(record.timestamps[i - record.sealed]),
+                                context.serialize(record.valueAt(i)));
+                if (record.rollups != null && !record.rollups.isEmpty())
+                    rollups = context.serialize(record.rollups, ROLLUPS_TYPE);
+            }
+            JsonObject json = new JsonObject();
+            if (blocks.size() > 0)
+                json.add("blocks", blocks);
+            json.add("entries", entries);
+            if (rollups != null)
+                json.add("rollups", rollups);
+            return json;
+        }
+
+        @Override
+        public VitalSignsRecord deserialize(JsonElement json, Type type,
+                                            JsonDeserializationContext context)
+                throws JsonParseException {
+            VitalSignsRecord record = new VitalSignsRecord();
+            JsonElement rollups = json.getAsJsonObject().get("rollups");
+            if (rollups != null && rollups.isJsonArray())
+                record.rollups = context.deserialize(rollups, ROLLUPS_TYPE);
+            JsonElement blocks = json.getAsJsonObject().get("blocks");
+            if (blocks != null && blocks.isJsonArray()) {
+                for (JsonElement text : blocks.getAsJsonArray()) {
+                    VitalSignsBlock block;
+                    try {
+                        block = VitalSignsBlock.fromBase64(text.getAsString());
+                    } catch (RuntimeException e) {
+                        throw new JsonParseException(e);
+                    }
+                    if (record.sealed > 0 && block.getFirstTimestamp()
+                            <= record.blocks.get(record.blocks.size() - 1).getLastTimestamp())
+                        throw new JsonParseException("Blocks of vital signs out of order");
+                    record.addBlock(block);
+                    record.size += block.size();
+                }
+            }
+            JsonElement entries = json.getAsJsonObject().get("entries");
+            if (entries == null || !entries.isJsonObject())
+                return record;
+
+            record.resize(entries.getAsJsonObject().entrySet().size());
+            for (Map.Entry<String, JsonElement> entry : entries.getAsJsonObject().entrySet()) {
+                VitalSigns value = context.deserialize(entry.getValue(), VitalSigns.class);
+                record.recordPackedValue(Long.parseLong(entry.getKey()),
+                                         PackedVitalSigns.pack(value));
+            }
+            return record;
+        }
+    }
+
+}
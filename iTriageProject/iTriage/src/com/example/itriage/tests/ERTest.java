@@ -1,18 +1,41 @@
 package com.example.itriage.tests;
 
+import com.example.itriage.models.Clock;
 import com.example.itriage.models.ER;
+import com.example.itriage.models.ERSnapshot;
+import com.example.itriage.models.PackedVitalSigns;
 import com.example.itriage.models.Patient;
+import com.example.itriage.models.PatientChangeEvent;
+import com.example.itriage.models.PatientChangeListener;
+import com.example.itriage.models.PatientNotFoundException;
+import com.example.itriage.models.PatientPage;
+import com.example.itriage.models.PatientPredicates;
+import com.example.itriage.models.PatientQuery;
+import com.example.itriage.models.QueryPlan;
+import com.example.itriage.models.RecordTimestamp;
+import com.example.itriage.models.RetentionPolicy;
+import com.example.itriage.models.UrgencyPolicy;
+import com.example.itriage.models.VitalSigns;
+import com.example.itriage.models.VitalSignsRecord;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 
 import static org.junit.Assert.*;
 
@@ -53,15 +76,18 @@ public class ERTest {
     }
 
     /**
-     * Clears the List in ER which stores the patients. This is necessary since
-     * ER is a singleton; its instance cannot be destroyed, so we must manually
-     * clear its list
+     * Removes every patient from the ER. This is necessary since ER is a
+     * singleton; its instance cannot be destroyed, so we must manually
+     * remove its patients
      *
      * @throws Exception
      */
     @After
     public void tearDown() throws Exception {
-        er.getAllPatientsByName().clear();
+        for (Patient patient : er.getAllPatientsByName())
+            er.removePatient(patient.getHealthCardNumber());
+        Clock.setCurrent(Clock.SYSTEM);
+        er.setRetentionPolicy(RetentionPolicy.KEEP_ALL);
     }
 
     /**
@@ -168,6 +194,71 @@ public class ERTest {
         assertEquals(patients[4], allPatientsByName.get(2));
     }
 
+    /**
+     * Tests the paged variants of getAllPatientsByName()
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetAllPatientsByNamePaged() throws Exception {
+        for (Patient patient : patients)
+            er.addPatient(patient);
+
+        // Offsets: "Bob", "Eli", "Joe", "Kim", "Pat"
+        List<Patient> slice = er.getAllPatientsByName(1, 2);
+        assertEquals(2, slice.size());
+        assertEquals(patients[2], slice.get(0));
+        assertEquals(patients[4], slice.get(1));
+
+        // The first page holds "Bob" and "Eli"
+        PatientPage page = er.getAllPatientsByName(null, 2);
+        assertEquals(patients[0], page.getPatients().get(0));
+        assertEquals(patients[2], page.getPatients().get(1));
+        assertTrue(page.hasNext());
+
+        // A patient inserted before the cursor does not shift the next page
+        er.addPatient("Ann", new GregorianCalendar(1970, 1, 1), "OKM", Calendar.getInstance());
+        page = er.getAllPatientsByName(page.getNextCursor(), 2);
+        assertEquals(patients[4], page.getPatients().get(0));
+        assertEquals(patients[1], page.getPatients().get(1));
+
+        // The last page holds only "Pat"
+        page = er.getAllPatientsByName(page.getNextCursor(), 2);
+        assertEquals(1, page.getPatients().size());
+        assertEquals(patients[3], page.getPatients().get(0));
+        assertFalse(page.hasNext());
+    }
+
+    /**
+     * Tests findPatientsByNamePrefix(String prefix, int limit)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindPatientsByNamePrefix() throws Exception {
+        List<Patient> matches;
+
+        // Add the test patients, plus two more whose names start with "Jo"
+        for (Patient patient : patients)
+            er.addPatient(patient);
+        Calendar now = Calendar.getInstance();
+        er.addPatient("Jon", new GregorianCalendar(1980, 2, 4), "YHN", now);
+        er.addPatient("Jo", new GregorianCalendar(1982, 5, 7), "UJM", now);
+
+        // Matches should be in alphabetical order by name
+        matches = er.findPatientsByNamePrefix("Jo", 10);
+        assertEquals(3, matches.size());
+        assertEquals("Jo", matches.get(0).getName());
+        assertEquals(patients[4], matches.get(1));
+        assertEquals("Jon", matches.get(2).getName());
+
+        // The limit should be respected
+        assertEquals(2, er.findPatientsByNamePrefix("Jo", 2).size());
+
+        // A prefix that matches no name should return nothing
+        assertTrue(er.findPatientsByNamePrefix("Zed", 10).isEmpty());
+    }
+
     /**
      * Tests getWaitingPatientsByUrgency()
      *
@@ -178,17 +269,21 @@ public class ERTest {
         // A list of waiting patients, sorted in descending order by urgency
         List<Patient> waitingPatientsByUrgency;
 
+        // Run on a date when patients[2] is under 2
+        Clock.setCurrent(Clock.fixed(new GregorianCalendar(2014, 2, 1).getTimeInMillis()));
+
         // patients[1] and patients[3] have seen a doctor; they are not waiting
         patients[1].addSeenByDoctor();
         patients[3].addSeenByDoctor();
 
-        // Expected urgency for patients[0]: 2
+        // Expected urgency for patients[0]: 1 (temperature)
         patients[0].recordVitalSigns(40, 100, 50, 70);
 
-        // Expected urgency for patients[0]: 4
+        // Expected urgency for patients[2]: 3 (age, temperature, blood
+        // pressure)
         patients[2].recordVitalSigns(40, 100, 100, 70);
 
-        // Expected urgency for patients[4]: 3
+        // Expected urgency for patients[4]: 2 (blood pressure, heart rate)
         patients[4].recordVitalSigns(35, 150, 50, 40);
 
         // Add the test patients
@@ -211,9 +306,938 @@ public class ERTest {
         assertTrue(waitingPatientsByUrgency.contains(patients[4]));
 
         // The list should be sorted by urgency in descending order
-        assertEquals(4, (int) waitingPatientsByUrgency.get(0).getUrgency());
-        assertEquals(3, (int) waitingPatientsByUrgency.get(1).getUrgency());
-        assertEquals(2, (int) waitingPatientsByUrgency.get(2).getUrgency());
+        assertEquals(3, (int) waitingPatientsByUrgency.get(0).getUrgency());
+        assertEquals(2, (int) waitingPatientsByUrgency.get(1).getUrgency());
+        assertEquals(1, (int) waitingPatientsByUrgency.get(2).getUrgency());
+    }
+
+    /**
+     * Tests that updatePatient() moves a re-scored or seen patient
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpdatePatient() throws Exception {
+        List<Patient> waitingPatientsByUrgency;
+
+        // Add the test patients with no vital signs
+        er.addPatient(patients[0]);
+        er.addPatient(patients[3]);
+        er.addPatient(patients[4]);
+
+        // patients[3] becomes the most urgent once its vital signs are recorded
+        patients[3].recordVitalSigns(40, 150, 50, 40);
+        er.updatePatient(patients[3]);
+        waitingPatientsByUrgency = er.getWaitingPatientsByUrgency();
+        assertEquals(patients[3], waitingPatientsByUrgency.get(0));
+
+        // patients[3] is no longer waiting once it has been seen by a doctor
+        patients[3].addSeenByDoctor();
+        er.updatePatient(patients[3]);
+        waitingPatientsByUrgency = er.getWaitingPatientsByUrgency();
+        assertFalse(waitingPatientsByUrgency.contains(patients[3]));
+        assertTrue(waitingPatientsByUrgency.contains(patients[0]));
+        assertTrue(waitingPatientsByUrgency.contains(patients[4]));
+    }
+
+    /**
+     * Tests that changes made directly to a patient are reported to the ER
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPatientChangesUpdateER() throws Exception {
+        er.addPatient(patients[0]);
+        er.addPatient(patients[3]);
+
+        // Recording vital signs moves patients[3] to the front without
+        // calling updatePatient()
+        patients[3].recordVitalSigns(40, 150, 50, 40);
+        assertEquals(patients[3], er.getWaitingPatientsByUrgency().get(0));
+
+        // Renaming patients[3] moves it in the name ordering
+        patients[3].setName("Abe");
+        assertEquals(patients[3], er.getAllPatientsByName().get(0));
+
+        // Changing the health card number of patients[3] re-keys it
+        patients[3].setHealthCardNumber("ZAQ");
+        assertEquals(patients[3], er.getPatient("ZAQ"));
+        try {
+            er.getPatient("RFV");
+            fail();
+        } catch (PatientNotFoundException e) {
+            // Expected
+        }
+
+        // patients[0] may not take the health card number of patients[3]
+        try {
+            er.setHealthCardNumber("QAZ", "ZAQ");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals("QAZ", patients[0].getHealthCardNumber());
+
+        // Taking it directly leaves both patients where they were
+        patients[0].setHealthCardNumber("ZAQ");
+        assertEquals(patients[0], er.getPatient("QAZ"));
+        assertEquals(patients[3], er.getPatient("ZAQ"));
+        assertEquals(2, er.getAllPatientsByName().size());
+
+        // A free number is taken through the ER
+        er.setHealthCardNumber("ZAQ", "XSW");
+        assertEquals(patients[3], er.getPatient("XSW"));
+        assertEquals(patients[0], er.getPatient("QAZ"));
+    }
+
+    /**
+     * Tests that changes to a patient still update the ER while the patient
+     * is kept under a health card number other than its own
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testChangesFindPatientById() throws Exception {
+        er.addPatient(patients[0]);
+        er.addPatient(patients[3]);
+
+        // patients[0] takes the number of patients[3] directly, so it stays
+        // under its old number
+        patients[0].setHealthCardNumber("RFV");
+        assertEquals(patients[0], er.getPatient("QAZ"));
+        assertEquals("QAZ", er.getKey(patients[0]));
+        assertEquals("RFV", er.getKey(patients[3]));
+
+        // Renaming patients[0] still moves it in the name ordering
+        patients[0].setName("Zed");
+        assertEquals(patients[0], er.getAllPatientsByName().get(1));
+
+        // Once its number is free, patients[0] can move to it
+        er.removePatient("RFV");
+        patients[0].setHealthCardNumber("RFV");
+        assertEquals(patients[0], er.getPatient("RFV"));
+        assertEquals("RFV", er.getKey(patients[0]));
+        assertEquals(1, er.getAllPatientsByName().size());
+    }
+
+    /**
+     * Tests that a PatientChangeListener is told the old and new value of a
+     * field, and a version which increases with each change
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPatientChangeListener() throws Exception {
+        final List<PatientChangeEvent> events = new ArrayList<PatientChangeEvent>();
+        patients[0].addChangeListener(new PatientChangeListener() {
+            @Override
+            public void onPatientChanged(PatientChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        patients[0].setName("Rob");
+        patients[0].recordSymptoms("Cough");
+
+        assertEquals(2, events.size());
+        assertEquals(PatientChangeEvent.Field.NAME, events.get(0).getField());
+        assertEquals("Bob", events.get(0).getOldValue());
+        assertEquals("Rob", events.get(0).getNewValue());
+        assertEquals(PatientChangeEvent.Field.SYMPTOMS, events.get(1).getField());
+        assertTrue(events.get(1).getVersion() > events.get(0).getVersion());
+    }
+
+    /**
+     * Tests getWaitingPatientsByArrivalTime() and its ranged variant
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetWaitingPatientsByArrivalTime() throws Exception {
+        List<Patient> waitingPatientsByArrivalTime;
+
+        // patients[0], patients[1], patients[2] arrived 3, 2 and 1 hours ago
+        for (int i = 0; i < 3; i++) {
+            Calendar arrivalTime = Calendar.getInstance();
+            arrivalTime.add(Calendar.HOUR_OF_DAY, i - 3);
+            patients[i].setArrivalTime(arrivalTime);
+            er.addPatient(patients[i]);
+        }
+
+        // The list should be sorted by arrival time, latest first
+        waitingPatientsByArrivalTime = er.getWaitingPatientsByArrivalTime();
+        assertEquals(patients[2], waitingPatientsByArrivalTime.get(0));
+        assertEquals(patients[1], waitingPatientsByArrivalTime.get(1));
+        assertEquals(patients[0], waitingPatientsByArrivalTime.get(2));
+
+        // Editing the arrival time of patients[0] moves it to the front
+        patients[0].setArrivalTime(Calendar.getInstance());
+        er.updatePatient(patients[0]);
+        waitingPatientsByArrivalTime = er.getWaitingPatientsByArrivalTime();
+        assertEquals(patients[0], waitingPatientsByArrivalTime.get(0));
+
+        // Only patients[1] and patients[2] arrived within the last 150 minutes
+        Calendar from = Calendar.getInstance();
+        from.add(Calendar.MINUTE, -150);
+        Calendar to = Calendar.getInstance();
+        to.add(Calendar.MINUTE, -30);
+        waitingPatientsByArrivalTime = er.getWaitingPatientsByArrivalTime(from, to, false);
+        assertEquals(2, waitingPatientsByArrivalTime.size());
+        assertEquals(patients[1], waitingPatientsByArrivalTime.get(0));
+        assertEquals(patients[2], waitingPatientsByArrivalTime.get(1));
+    }
+
+    /**
+     * Tests that several threads can add patients and record vital signs at
+     * the same time
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final int threadCount = 4;
+        final int patientsPerThread = 250;
+        Thread[] threads = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < patientsPerThread; i++) {
+                            String healthCardNumber = thread + "-" + i;
+                            er.addPatient("P" + healthCardNumber,
+                                          new GregorianCalendar(1980, 0, 1),
+                                          healthCardNumber, Calendar.getInstance());
+                            er.recordVitalSigns(healthCardNumber, 40, 150, 50, 70);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        // Every patient should be waiting with urgency 2
+        List<Patient> waitingPatientsByUrgency = er.getWaitingPatientsByUrgency();
+        assertEquals(threadCount * patientsPerThread, waitingPatientsByUrgency.size());
+        for (Patient patient : waitingPatientsByUrgency)
+            assertEquals(2, (int) patient.getUrgency());
+    }
+
+    /**
+     * Tests setShardCount(int shardCount)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSetShardCount() throws Exception {
+        for (Patient patient : patients)
+            er.addPatient(patient);
+        List<Patient> byName = er.getAllPatientsByName();
+        List<Patient> byArrivalTime = er.getWaitingPatientsByArrivalTime();
+
+        er.setShardCount(4);
+        try {
+            assertEquals(4, er.getShardCount());
+
+            // Orderings merged from every shard match the unsharded ones
+            assertEquals(byName, er.getAllPatientsByName());
+            assertEquals(byArrivalTime, er.getWaitingPatientsByArrivalTime());
+            assertEquals(patients[1], er.getPatient(patients[1].getHealthCardNumber()));
+
+            // Paging walks across shards without repeating a patient
+            List<Patient> paged = new ArrayList<Patient>();
+            PatientPage page = er.getAllPatientsByName(null, 2);
+            paged.addAll(page.getPatients());
+            while (page.hasNext()) {
+                page = er.getAllPatientsByName(page.getNextCursor(), 2);
+                paged.addAll(page.getPatients());
+            }
+            assertEquals(byName, paged);
+
+            // A patient whose health card number changes moves between shards
+            patients[0].setHealthCardNumber("YHN");
+            assertEquals(patients[0], er.getPatient("YHN"));
+            assertEquals(5, er.getAllPatientsByName().size());
+        } finally {
+            er.setShardCount(1);
+        }
+    }
+
+    /**
+     * Tests query(PatientQuery query) and explain(PatientQuery query)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testQuery() throws Exception {
+        for (int i = 0; i < patients.length; i++) {
+            Calendar arrivalTime = Calendar.getInstance();
+            arrivalTime.add(Calendar.HOUR, -i);
+            patients[i].setArrivalTime(arrivalTime);
+            er.addPatient(patients[i]);
+        }
+        patients[4].addSeenByDoctor();
+        patients[0].recordVitalSigns(39.5, 150, 80, 110);
+
+        // Waiting patients who arrived in the last 2.5 hours, latest first
+        Calendar from = Calendar.getInstance();
+        from.add(Calendar.MINUTE, -150);
+        PatientQuery query = new PatientQuery()
+                .waiting()
+                .arrivedBetween(from, Calendar.getInstance())
+                .sortBy(PatientQuery.Sort.LATEST_ARRIVAL_FIRST)
+                .limit(2);
+        List<Patient> results = er.query(query);
+        assertEquals(2, results.size());
+        assertEquals(patients[0], results.get(0));
+        assertEquals(patients[1], results.get(1));
+        QueryPlan plan = er.explain(query);
+        assertEquals(QueryPlan.Access.ARRIVAL_TIME_INDEX, plan.getAccess());
+        assertTrue(plan.isBounded());
+        assertFalse(plan.needsSort());
+
+        // Urgent waiting patients are read from the urgency ordering
+        query = new PatientQuery().waiting().urgencyAtLeast(2)
+                .sortBy(PatientQuery.Sort.NAME);
+        results = er.query(query);
+        assertEquals(1, results.size());
+        assertEquals(patients[0], results.get(0));
+        assertEquals(QueryPlan.Access.URGENCY_INDEX, er.explain(query).getAccess());
+
+        // A name prefix is read from the name ordering
+        query = new PatientQuery().nameStartsWith("J");
+        assertEquals(patients[4], er.query(query).get(0));
+        assertEquals(QueryPlan.Access.NAME_INDEX, er.explain(query).getAccess());
+
+        // An empty prefix matches every patient, so every patient is read
+        query = new PatientQuery().nameStartsWith("");
+        assertEquals(patients.length, er.query(query).size());
+        assertTrue(er.explain(query).isFullScan());
+
+        // A condition no ordering answers is checked while reading in order
+        query = new PatientQuery()
+                .where(PatientPredicates.not(PatientPredicates.ageUnder(40)))
+                .sortBy(PatientQuery.Sort.NAME);
+        results = er.query(query);
+        assertEquals(2, results.size());
+        assertEquals(patients[4], results.get(0));
+        assertEquals(patients[3], results.get(1));
+        plan = er.explain(query);
+        assertEquals(QueryPlan.Access.NAME_INDEX, plan.getAccess());
+        assertFalse(plan.isBounded());
+
+        // Seen patients are not in the urgency ordering, so this reads every
+        // patient and sorts the matches
+        query = new PatientQuery().sortBy(PatientQuery.Sort.URGENCY);
+        assertEquals(patients.length, er.query(query).size());
+        assertEquals(patients[0], er.query(query).get(0));
+        plan = er.explain(query);
+        assertTrue(plan.isFullScan());
+        assertTrue(plan.needsSort());
+    }
+
+    /**
+     * Tests that a patient keeps its id, and so its place in sets, through
+     * edits and saving
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPatientId() throws Exception {
+        Set<Patient> set = new HashSet<Patient>(Arrays.asList(patients));
+        assertEquals(patients.length, set.size());
+        long id = patients[0].getId();
+        patients[0].setName("Robert");
+        patients[0].setHealthCardNumber("ZAQ");
+        assertEquals(id, patients[0].getId());
+        assertTrue(set.contains(patients[0]));
+        assertFalse(patients[1].equals(new Patient(patients[1].getName(), patients[1].getBirthDate(),
+                                                   patients[1].getHealthCardNumber(),
+                                                   patients[1].getArrivalTime())));
+
+        er.addPatient(patients[0]);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        er.saveToStream(outputStream);
+        er.loadFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        Patient loaded = er.getPatient("ZAQ");
+        assertNotSame(patients[0], loaded);
+        assertEquals(id, loaded.getId());
+        assertEquals(patients[0], loaded);
+
+        // Patients saved before ids get new ones
+        er.loadFromStream(new ByteArrayInputStream(("{\"QAZ\":{\"name\":\"Bob\"," +
+                "\"birthEpochDay\":0,\"healthCardNumber\":\"QAZ\",\"arrivalTime\":0," +
+                "\"vitalSigns\":{\"entries\":{}},\"symptoms\":{\"entries\":{}}," +
+                "\"timesSeenByDoctor\":[],\"prescriptions\":{\"entries\":{}}," +
+                "\"status\":0}}").getBytes()));
+        assertTrue(er.getPatient("QAZ").getId() > patients[patients.length - 1].getId());
+    }
+
+    /**
+     * Tests that seeing a doctor moves a patient from the waiting partition
+     * to the seen partition
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetSeenPatients() throws Exception {
+        er.setShardCount(4);
+        try {
+            for (Patient patient : patients)
+                er.addPatient(patient);
+            assertTrue(er.getSeenPatients().isEmpty());
+
+            er.addSeenByDoctor(patients[1].getHealthCardNumber());
+            er.addSeenByDoctor(patients[3].getHealthCardNumber());
+            List<Patient> seen = er.getSeenPatients();
+            assertEquals(2, seen.size());
+            assertTrue(seen.contains(patients[1]));
+            assertTrue(seen.contains(patients[3]));
+
+            // A query of waiting patients with no range reads only the
+            // waiting partitions
+            List<Patient> waiting = er.query(new PatientQuery().waiting());
+            assertEquals(3, waiting.size());
+            assertFalse(waiting.contains(patients[1]));
+            assertFalse(waiting.contains(patients[3]));
+            assertTrue(er.explain(new PatientQuery().waiting()).isFullScan());
+
+            er.removePatient(patients[1].getHealthCardNumber());
+            assertEquals(1, er.getSeenPatients().size());
+        } finally {
+            er.setShardCount(1);
+        }
+    }
+
+    /**
+     * Tests that seeing a doctor moves a patient between partitions while it
+     * is kept under a health card number other than its own
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSeenWhileNumberTaken() throws Exception {
+        er.addPatient(patients[0]);
+        er.addPatient(patients[3]);
+
+        // patients[0] takes the number of patients[3] directly, so it stays
+        // under its old number
+        patients[0].setHealthCardNumber("RFV");
+        patients[0].addSeenByDoctor();
+
+        // Only patients[0] should have moved to the seen partition
+        List<Patient> seen = er.getSeenPatients();
+        assertEquals(1, seen.size());
+        assertTrue(seen.contains(patients[0]));
+        List<Patient> waiting = er.query(new PatientQuery().waiting());
+        assertEquals(1, waiting.size());
+        assertTrue(waiting.contains(patients[3]));
+    }
+
+    /**
+     * Tests topWaitingByUrgency(int k)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTopWaitingByUrgency() throws Exception {
+        for (Patient patient : patients)
+            er.addPatient(patient);
+        patients[3].recordVitalSigns(39.5, 150, 80, 110);
+        patients[1].recordVitalSigns(39.5, 120, 80, 80);
+        patients[3].addSeenByDoctor();
+
+        // The top patients are the head of the full ordering
+        List<Patient> all = er.getWaitingPatientsByUrgency();
+        List<Patient> top = er.topWaitingByUrgency(2);
+        assertEquals(all.subList(0, 2), top);
+        assertEquals(patients[1], top.get(0));
+
+        assertEquals(all, er.topWaitingByUrgency(100));
+        assertTrue(er.topWaitingByUrgency(0).isEmpty());
+    }
+
+    /**
+     * Tests searchPatients(String text, int limit)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSearchPatients() throws Exception {
+        for (Patient patient : patients)
+            er.addPatient(patient);
+
+        // Part of a health card number
+        List<Patient> matches = er.searchPatients("qa", 5);
+        assertEquals(patients[0], matches.get(0));
+
+        // A misspelled name, after the name has changed
+        patients[1].setName("Kimberly");
+        matches = er.searchPatients("Kimbrely", 5);
+        assertEquals(1, matches.size());
+        assertEquals(patients[1], matches.get(0));
+
+        // Removed patients are no longer found
+        er.removePatient(patients[1].getHealthCardNumber());
+        assertTrue(er.searchPatients("Kimbrely", 5).isEmpty());
+    }
+
+    /**
+     * Tests that a patient's remembered urgency follows changes to the
+     * patient and to their age
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUrgencyCache() throws Exception {
+        Calendar birthDate = Calendar.getInstance();
+        birthDate.add(Calendar.YEAR, -1);
+        Patient patient = new Patient("Ava", birthDate, "UJM", Calendar.getInstance());
+        assertEquals(1, patient.getUrgencyValue());
+
+        patient.recordVitalSigns(39.5, 120, 80, 80);
+        assertEquals(2, patient.getUrgencyValue());
+        assertEquals(1, patient.getStatus());
+
+        // A patient who has just turned 2 is no longer an infant
+        Calendar olderBirthDate = Calendar.getInstance();
+        olderBirthDate.add(Calendar.YEAR, -2);
+        patient.setBirthDate(olderBirthDate);
+        assertEquals(1, patient.getUrgencyValue());
+        assertEquals(1, (int) patient.getUrgency());
+    }
+
+    /**
+     * Tests setUrgencyPolicy(UrgencyPolicy policy)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSetUrgencyPolicy() throws Exception {
+        for (Patient patient : patients)
+            er.addPatient(patient);
+        patients[0].recordVitalSigns(38.5, 120, 80, 80);
+        patients[1].recordVitalSigns(36.5, 120, 80, 110);
+        assertEquals(patients[1], er.getWaitingPatientsByUrgency().get(0));
+
+        UrgencyPolicy policy = UrgencyPolicy.parse(new StringReader(
+                "# Fevers count for more than heart rate\n" +
+                "3: temperature >= 38\n" +
+                "1: heartRate >= 100 or heartRate <= 50\n" +
+                "2: age > 64\n"));
+        try {
+            er.setUrgencyPolicy(policy);
+            assertEquals(3, patients[0].getUrgencyValue());
+            assertEquals(2, patients[3].getUrgencyValue());
+            List<Patient> byUrgency = er.getWaitingPatientsByUrgency();
+            assertEquals(patients[0], byUrgency.get(0));
+            assertEquals(patients[3], byUrgency.get(1));
+            assertEquals(patients[1], byUrgency.get(2));
+        } finally {
+            er.setUrgencyPolicy(UrgencyPolicy.DEFAULT);
+        }
+        assertEquals(patients[1], er.getWaitingPatientsByUrgency().get(0));
+
+        try {
+            UrgencyPolicy.parse(new StringReader("1: pulse > 100"));
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Tests that ages and urgencies follow the clock
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testClock() throws Exception {
+        // Born on a leap day, so the birthday is March 1 in other years
+        Patient patient = new Patient("Lea", new GregorianCalendar(2020, 1, 29),
+                                      "PLM", Calendar.getInstance());
+        er.addPatient(patient);
+
+        Clock.setCurrent(Clock.fixed(new GregorianCalendar(2022, 1, 28, 12, 0).getTimeInMillis()));
+        assertEquals(1, patient.getAge());
+        assertEquals(1, patient.getUrgencyValue());
+
+        Clock.setCurrent(Clock.fixed(new GregorianCalendar(2022, 2, 1, 12, 0).getTimeInMillis()));
+        assertEquals(2, patient.getAge());
+        assertEquals(0, patient.getUrgencyValue());
+
+        // Going back in time makes the patient an infant again
+        Clock.setCurrent(Clock.fixed(new GregorianCalendar(2021, 0, 1).getTimeInMillis()));
+        assertEquals(1, patient.getUrgencyValue());
+        assertEquals(new GregorianCalendar(2020, 1, 29), patient.getBirthDate());
+    }
+
+    /**
+     * Tests that the urgency ordering follows the clock when patients grow
+     * older than an urgency threshold
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUrgencyOrderFollowsClock() throws Exception {
+        // A clock which this test moves forward itself
+        final long[] time = { new GregorianCalendar(2022, 1, 27, 12, 0).getTimeInMillis() };
+        Clock.setCurrent(new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return time[0];
+            }
+        });
+
+        // Lea is under 2, so she is more urgent than Ann, who arrived later
+        Patient lea = new Patient("Lea", new GregorianCalendar(2020, 1, 29), "PLM",
+                                  new GregorianCalendar(2022, 1, 27, 10, 0));
+        Patient ann = new Patient("Ann", new GregorianCalendar(1990, 0, 1), "OKN",
+                                  new GregorianCalendar(2022, 1, 27, 11, 0));
+        er.addPatient(lea);
+        er.addPatient(ann);
+        assertEquals(lea, er.getWaitingPatientsByUrgency().get(0));
+        assertEquals(1, er.query(new PatientQuery().waiting().urgencyAtLeast(1)).size());
+
+        // On her second birthday Lea is no more urgent than Ann
+        time[0] = new GregorianCalendar(2022, 2, 1, 12, 0).getTimeInMillis();
+        assertEquals(ann, er.getWaitingPatientsByUrgency().get(0));
+        assertEquals(ann, er.topWaitingByUrgency(1).get(0));
+        assertTrue(er.query(new PatientQuery().waiting().urgencyAtLeast(1)).isEmpty());
+
+        // Replacing the clock with an earlier one makes her an infant again
+        Clock.setCurrent(Clock.fixed(new GregorianCalendar(2021, 0, 1).getTimeInMillis()));
+        assertEquals(lea, er.getWaitingPatientsByUrgency().get(0));
+        assertEquals(lea, er.getSnapshot().getWaitingPatientsByUrgency().get(0));
+    }
+
+    /**
+     * Tests that vital signs are kept in time order, are never recorded over
+     * each other and survive saving
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testVitalSignsRecord() throws Exception {
+        er.addPatient(patients[0]);
+        long first = RecordTimestamp.lowest(1000);
+        Clock.setCurrent(Clock.fixed(1000));
+        patients[0].recordVitalSigns(38.0, 130, 85, 90);
+        patients[0].recordVitalSigns(37.0, 120, 80, 70);
+        patients[0].recordSymptoms("Cough");
+        patients[0].recordSymptoms("Fever");
+        // The clock going back does not reorder the readings
+        Clock.setCurrent(Clock.fixed(500));
+        patients[0].recordVitalSigns(39.0, 140, 90, 110);
+
+        VitalSignsRecord record = patients[0].getVitalSigns();
+        assertEquals(3, record.size());
+        assertEquals(Arrays.asList(first, first + 1, first + 2),
+                     new ArrayList<Long>(record.getHistory().keySet()));
+        assertEquals(Arrays.asList("Cough", "Fever"),
+                     new ArrayList<String>(patients[0].getSymptoms().getHistory().values()));
+        assertEquals(38.0, record.getValue(first).getTemperature(), 0);
+        assertNull(record.getValue(RecordTimestamp.lowest(500)));
+        assertEquals(39.0, record.getValueAt(1000).getTemperature(), 0);
+        assertNull(record.getValueAt(999));
+        assertEquals(110, record.getLatestValue().getHeartRate(), 0);
+        assertEquals(1000L, record.getTime(2));
+        assertEquals(1, RecordTimestamp.sequenceOf(record.getTimestamp(1)));
+        assertEquals(90, PackedVitalSigns.heartRate(record.getPackedValue(0)));
+        assertEquals(38.0, PackedVitalSigns.temperature(record.getPackedValues()[0]), 0);
+
+        // Readings which do not fit in a packed reading are refused
+        try {
+            patients[0].recordVitalSigns(37.0, 120, -1, 70);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(3, record.size());
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        er.saveToStream(outputStream);
+        er.loadFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        record = er.getPatient(patients[0].getHealthCardNumber()).getVitalSigns();
+        assertEquals(3, record.size());
+        assertEquals(130, record.getValue(first).getSystolicBloodPressure(), 0);
+        assertEquals(2, er.getPatient(patients[0].getHealthCardNumber())
+                .getSymptoms().getHistory().size());
+    }
+
+    /**
+     * Tests range views and downsampling of a patient's records
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRecordRanges() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Clock.setCurrent(Clock.fixed(i * 1000L));
+            patients[0].recordVitalSigns(37.0 + i / 10.0, 120 + i, 80, 60 + i);
+            patients[0].recordSymptoms("Symptom " + i);
+        }
+
+        VitalSignsRecord vitalSigns = patients[0].getVitalSigns();
+        SortedMap<Long, VitalSigns> between = vitalSigns.getHistoryBetween(2000, 5000);
+        assertEquals(Arrays.asList(RecordTimestamp.lowest(2000), RecordTimestamp.lowest(3000),
+                                   RecordTimestamp.lowest(4000)),
+                     new ArrayList<Long>(between.keySet()));
+        assertEquals(122, between.get(RecordTimestamp.lowest(2000)).getSystolicBloodPressure(), 0);
+        assertNull(between.get(RecordTimestamp.lowest(5000)));
+        assertEquals(RecordTimestamp.lowest(3000),
+                     (long) between.tailMap(RecordTimestamp.lowest(2500)).firstKey());
+
+        SortedMap<Long, VitalSigns> latest = vitalSigns.getLatestHistory(2);
+        assertEquals(Arrays.asList(RecordTimestamp.lowest(8000), RecordTimestamp.lowest(9000)),
+                     new ArrayList<Long>(latest.keySet()));
+
+        // Views see readings recorded after they were made
+        Clock.setCurrent(Clock.fixed(10000));
+        patients[0].recordVitalSigns(38.0, 130, 80, 70);
+        assertEquals(3, latest.size());
+        assertEquals(RecordTimestamp.lowest(10000), (long) vitalSigns.getHistorySince(9500).firstKey());
+
+        SortedMap<Long, String> symptoms = patients[0].getSymptoms().getHistoryBetween(2000, 5000);
+        assertEquals(Arrays.asList("Symptom 2", "Symptom 3", "Symptom 4"),
+                     new ArrayList<String>(symptoms.values()));
+        assertEquals(2, patients[0].getSymptoms().getLatestHistory(2).size());
+
+        List<VitalSignsRecord.Bucket> buckets = vitalSigns.downsample(0, 10000, 5);
+        assertEquals(5, buckets.size());
+        assertEquals(2, buckets.get(0).getCount());
+        assertEquals(2000L, buckets.get(1).getStartTime());
+        assertEquals(122, buckets.get(1).getMinimum().getSystolicBloodPressure(), 0);
+        assertEquals(123, buckets.get(1).getMaximum().getSystolicBloodPressure(), 0);
+        assertEquals(37.3, buckets.get(1).getAverage().getTemperature(), 0.001);
+        assertEquals(6, vitalSigns.downsample(6).size());
+    }
+
+    /**
+     * Tests that old vital signs are compacted into rollups
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRetentionPolicy() throws Exception {
+        er.addPatient(patients[0]);
+        long minute = 60 * 1000;
+        for (int i = 0; i < 120; i++) {
+            Clock.setCurrent(Clock.fixed(i * minute));
+            patients[0].recordVitalSigns(37.0 + (i % 10) / 10.0, 120, 80, 60 + i % 40);
+            patients[0].recordSymptoms("Symptom " + i);
+        }
+        VitalSignsRecord record = patients[0].getVitalSigns();
+        assertEquals(120, record.size());
+
+        // Keep an hour of raw readings, and summarize older ones per 10
+        // minutes; only whole intervals are summarized
+        er.setRetentionPolicy(new RetentionPolicy(60 * minute, 10 * minute));
+        er.compactHistories();
+        assertEquals(70, record.size());
+        assertEquals(50 * minute, record.getTime(0));
+        assertEquals(120, patients[0].getSymptoms().getHistory().size());
+        assertEquals(99, record.getLatestValue().getHeartRate(), 0);
+
+        List<VitalSignsRecord.Bucket> rollups = record.getRollups();
+        assertEquals(5, rollups.size());
+        assertEquals(10, rollups.get(0).getCount());
+        assertEquals(10 * minute, rollups.get(1).getStartTime());
+        assertEquals(60, rollups.get(0).getMinimum().getHeartRate(), 0);
+        assertEquals(69, rollups.get(0).getMaximum().getHeartRate(), 0);
+        assertEquals(37.5, rollups.get(0).getAverage().getTemperature(), 0.001);
+
+        int count = 0;
+        for (VitalSignsRecord.Bucket bucket : record.downsample(12))
+            count += bucket.getCount();
+        assertEquals(120, count);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        er.saveToStream(outputStream);
+        er.loadFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        record = er.getPatient(patients[0].getHealthCardNumber()).getVitalSigns();
+        assertEquals(70, record.size());
+        assertEquals(5, record.getRollups().size());
+        assertEquals(40 * minute, record.getRollups().get(4).getStartTime());
+    }
+
+    /**
+     * Tests that compacting twice within one rollup interval leaves a single
+     * rollup for it
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCompactAcrossInterval() throws Exception {
+        er.addPatient(patients[0]);
+        long minute = 60 * 1000;
+        er.setRetentionPolicy(new RetentionPolicy(minute, 10 * minute));
+        for (int i = 0; i < 15; i++) {
+            Clock.setCurrent(Clock.fixed(i * minute));
+            patients[0].recordVitalSigns(37.0, 120, 80, 60 + i);
+        }
+
+        // The latest reading is kept raw, and so is the rest of its interval
+        Clock.setCurrent(Clock.fixed(100 * minute));
+        er.compactHistories();
+        VitalSignsRecord record = patients[0].getVitalSigns();
+        assertEquals(5, record.size());
+        assertEquals(10 * minute, record.getTime(0));
+        assertEquals(1, record.getRollups().size());
+
+        for (int i = 15; i < 26; i++) {
+            Clock.setCurrent(Clock.fixed(i * minute));
+            patients[0].recordVitalSigns(37.0, 120, 80, 60 + i);
+        }
+        Clock.setCurrent(Clock.fixed(100 * minute));
+        er.compactHistories();
+        List<VitalSignsRecord.Bucket> rollups = record.getRollups();
+        assertEquals(2, rollups.size());
+        assertEquals(10 * minute, rollups.get(1).getStartTime());
+        assertEquals(10, rollups.get(1).getCount());
+        assertEquals(70, rollups.get(1).getMinimum().getHeartRate(), 0);
+        assertEquals(6, record.size());
+
+        int count = 0;
+        for (VitalSignsRecord.Bucket bucket : record.downsample(100))
+            count += bucket.getCount();
+        assertEquals(26, count);
+    }
+
+    /**
+     * Tests that long histories of vital signs read the same once their
+     * earliest readings are sealed into compressed blocks
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCompressedVitalSigns() throws Exception {
+        er.addPatient(patients[0]);
+        long second = 1000;
+        long[] packed = new long[1000];
+        for (int i = 0; i < packed.length; i++) {
+            // Every seventh reading shares the millisecond of the one before
+            int time = i % 7 == 0 && i > 0 ? i - 1 : i;
+            Clock.setCurrent(Clock.fixed(time * second + time % 3));
+            packed[i] = PackedVitalSigns.pack(36.5 + (i % 20) / 10.0, 110 + i % 30,
+                                              70 + (i / 50) % 20, 60 + (i * 7) % 50);
+            patients[0].recordVitalSigns(PackedVitalSigns.temperature(packed[i]),
+                                         PackedVitalSigns.systolicBloodPressure(packed[i]),
+                                         PackedVitalSigns.diastolicBloodPressure(packed[i]),
+                                         PackedVitalSigns.heartRate(packed[i]));
+        }
+        VitalSignsRecord record = patients[0].getVitalSigns();
+        assertEquals(packed.length, record.size());
+        assertTrue(Arrays.equals(packed, record.getPackedValues()));
+        for (int i = 1; i < record.size(); i++)
+            assertTrue(record.getTimestamp(i - 1) < record.getTimestamp(i));
+        assertEquals(packed[300], PackedVitalSigns.pack(
+                record.getValue(record.getTimestamp(300))));
+        assertEquals(packed[299], PackedVitalSigns.pack(
+                record.getValueAt(record.getTime(300) - 1)));
+        assertEquals(100, record.getHistoryBetween(record.getTime(200),
+                                                   record.getTime(300)).size());
+        int index = 200;
+        for (Map.Entry<Long, VitalSigns> entry : record.getHistorySince(record.getTime(200)).entrySet())
+            assertEquals(packed[index++], PackedVitalSigns.pack(entry.getValue()));
+        assertEquals(packed.length, index);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        er.saveToStream(outputStream);
+        assertTrue(outputStream.toString().contains("\"blocks\""));
+        er.loadFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        VitalSignsRecord loaded = er.getPatient(patients[0].getHealthCardNumber()).getVitalSigns();
+        assertTrue(Arrays.equals(packed, loaded.getPackedValues()));
+        assertEquals(record.getHistory().keySet(), loaded.getHistory().keySet());
+
+        // Compacting part way through a block seals the rest of it again
+        er.setRetentionPolicy(new RetentionPolicy(700 * second, 10 * second));
+        er.compactHistories();
+        assertEquals(710, loaded.size());
+        assertEquals(290 * second + 290 % 3, loaded.getTime(0));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(packed, 290, packed.length),
+                                 loaded.getPackedValues()));
+    }
+
+    /**
+     * Tests that files which stored birth dates and times as calendars
+     * still load
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLoadLegacyCalendars() throws Exception {
+        String json = "{\"QAZ\":{\"name\":\"Bob\"," +
+                "\"birthDate\":{\"year\":1994,\"month\":6,\"dayOfMonth\":8," +
+                "\"hourOfDay\":0,\"minute\":0,\"second\":0}," +
+                "\"healthCardNumber\":\"QAZ\"," +
+                "\"arrivalTime\":{\"year\":2014,\"month\":2,\"dayOfMonth\":1," +
+                "\"hourOfDay\":9,\"minute\":30,\"second\":0}," +
+                "\"vitalSigns\":{\"values\":{}},\"symptoms\":{\"values\":[[" +
+                "{\"year\":2014,\"month\":2,\"dayOfMonth\":1," +
+                "\"hourOfDay\":9,\"minute\":45,\"second\":0},\"Fever\"]]}," +
+                "\"timesSeenByDoctor\":[{\"year\":2014,\"month\":2,\"dayOfMonth\":1," +
+                "\"hourOfDay\":10,\"minute\":0,\"second\":0}]," +
+                "\"prescriptions\":{\"values\":{}},\"status\":0}}";
+        er.loadFromStream(new ByteArrayInputStream(json.getBytes()));
+
+        Patient patient = er.getPatient("QAZ");
+        assertEquals(new GregorianCalendar(1994, 6, 8), patient.getBirthDate());
+        assertEquals(patients[0].getBirthEpochDay(), patient.getBirthEpochDay());
+        assertEquals("Bob", patient.getName());
+        assertEquals(new GregorianCalendar(2014, 2, 1, 9, 30).getTimeInMillis(),
+                     patient.getArrivalTimeMillis());
+        assertEquals("Fever", patient.getSymptoms().getValue(RecordTimestamp.lowest(
+                new GregorianCalendar(2014, 2, 1, 9, 45).getTimeInMillis())));
+        assertEquals(new GregorianCalendar(2014, 2, 1, 10, 0).getTimeInMillis(),
+                     patient.getLastSeenByDoctor().getTimeInMillis());
+        assertFalse(er.getWaitingPatientsByUrgency().contains(patient));
+    }
+
+    /**
+     * Tests that getSnapshot() returns an immutable, versioned view
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetSnapshot() throws Exception {
+        er.addPatient(patients[0]);
+        er.addPatient(patients[1]);
+
+        // Taking a snapshot twice with no changes returns the same snapshot
+        ERSnapshot snapshot = er.getSnapshot();
+        assertSame(snapshot, er.getSnapshot());
+        assertEquals(2, snapshot.size());
+
+        // A change is not seen by the old snapshot, only by a new one
+        er.addPatient(patients[2]);
+        ERSnapshot newSnapshot = er.getSnapshot();
+        assertTrue(newSnapshot.getVersion() > snapshot.getVersion());
+        assertEquals(2, snapshot.getAllPatientsByName().size());
+        assertEquals(3, newSnapshot.getAllPatientsByName().size());
+        assertEquals(patients[2], newSnapshot.getPatient(patients[2].getHealthCardNumber()));
+
+        // A patient kept under its old number, because its new number belongs
+        // to another patient, is found at its old number
+        patients[0].setHealthCardNumber("WSX");
+        patients[0].setName("Rob");
+        newSnapshot = er.getSnapshot();
+        assertEquals(3, newSnapshot.size());
+        assertEquals(patients[0], newSnapshot.getPatient("QAZ"));
+        assertEquals(patients[1], newSnapshot.getPatient("WSX"));
+
+        // A snapshot cannot be changed
+        try {
+            newSnapshot.getWaitingPatientsByUrgency().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
     }
 
     @Test
@@ -290,4 +1314,47 @@ public class ERTest {
         assertEquals(patients[4], patientList.get(2));
     }
 
+    @Test
+    public void testLoadFromEmptyStream() throws Exception {
+        // Add the test patients
+        er.addPatient(patients[0]);
+        er.addPatient(patients[1]);
+
+        // Load an empty file, as left by a first run
+        er.loadFromStream(new ByteArrayInputStream(new byte[0]));
+
+        // The ER should hold no patients
+        assertTrue(er.getAllPatientsByName().isEmpty());
+
+        // Save the empty ER and load it back
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        er.saveToStream(outputStream);
+        assertEquals("{}", outputStream.toString());
+        er.addPatient(patients[2]);
+        er.loadFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // The ER should still hold no patients
+        assertTrue(er.getAllPatientsByName().isEmpty());
+    }
+
+    @Test
+    public void testSaveToStreamWhileNumberTaken() throws Exception {
+        er.addPatient(patients[0]);
+        er.addPatient(patients[3]);
+
+        // patients[0] takes the number of patients[3] directly, so it stays
+        // under its old number
+        patients[0].setHealthCardNumber("RFV");
+
+        // Save the ER and load it back
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        er.saveToStream(outputStream);
+        er.loadFromStream(new ByteArrayInputStream(outputStream.toByteArray()));
+
+        // Both patients should come back under the numbers they were kept at
+        assertEquals(2, er.getAllPatientsByName().size());
+        assertEquals("Bob", er.getPatient("QAZ").getName());
+        assertEquals("Pat", er.getPatient("RFV").getName());
+    }
+
 }